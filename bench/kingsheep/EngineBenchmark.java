@@ -0,0 +1,131 @@
+package kingsheep;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Micro benchmarks for the pieces of the engine that run on every turn.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EngineBenchmark {
+
+    private static final String MAP = "test.map";
+
+    private Simulator sim;
+    private Board board;
+    private Creature wolf;
+    private Creature sheep;
+    private BoardView view;
+    private Player players[];
+    private GameState state;
+
+    /** Flips between RIGHT and LEFT so the board ends up where it
+        started. */
+    private boolean right;
+
+    @Setup
+    public void setup() throws Exception {
+        sim = new Simulator(MAP, "dumb", "dumb");
+        board = sim.getBoard();
+        sheep = sim.getPlayer(1).sheep;
+        wolf = sim.getPlayer(0).wolf;
+        view = new BoardView(board, 2, sim);
+        players = new Player[] { newPlayer(1), newPlayer(2) };
+        state = view.state();
+    }
+
+    private static Player newPlayer(int id) {
+        return new Player(new kingsheep.team.dumb.Sheep
+                          (id == 1 ? Type.SHEEP1 : Type.SHEEP2, id, -1, -1),
+                          new kingsheep.team.dumb.Wolf
+                          (id == 1 ? Type.WOLF1 : Type.WOLF2, id, -1, -1));
+    }
+
+    /** Starting a game's board, from the cached template. */
+    @Benchmark
+    public Board loadMap() throws IOException {
+        return MapLoader.loadMap(MAP, players);
+    }
+
+    /** Reading the map itself, as the first game on it does. */
+    @Benchmark
+    public MapTemplate readMap() throws IOException {
+        return MapLoader.read(MAP);
+    }
+
+    /** What the simulator did before every think until it got
+        {@link BoardView}. */
+    @Benchmark
+    public Type[][] copyAndFilter() {
+        Type map[][] = new Type[board.height()][board.width()];
+        for (int i = 0; i < map.length; i++)
+            for (int j = 0; j < map[i].length; j++)
+                map[i][j] = board.get(j, i);
+        return sheep.filter(map);
+    }
+
+    /** The compatibility copy handed to classic AIs. */
+    @Benchmark
+    public Type[][] viewToArray() {
+        return view.toArray();
+    }
+
+    /** Reading the whole board through the view, as a new-style AI
+        would. */
+    @Benchmark
+    public void viewScan(Blackhole bh) {
+        for (int y = 0; y < view.height(); ++y)
+            for (int x = 0; x < view.width(); ++x)
+                bh.consume(view.get(x, y));
+    }
+
+    @Benchmark
+    public void legalMove(Blackhole bh) {
+        for (int y = 0; y < board.height(); ++y)
+            for (int x = 0; x < board.width(); ++x)
+                bh.consume(sim.legalMove(x, y, Type.WOLF1));
+    }
+
+    /** Moves player 1's wolf back and forth between two empty squares. */
+    @Benchmark
+    public void action() {
+        wolf.move = right ? Creature.Move.RIGHT : Creature.Move.LEFT;
+        right = !right;
+        sim.action(wolf);
+    }
+
+    /** One step of a search: a move in a copy of the game, taken
+        back. */
+    @Benchmark
+    public void makeUnmake() {
+        state.make(Creature.Move.RIGHT);
+        state.unmake();
+    }
+
+    @Benchmark
+    public GameState copyState() {
+        return state.copy();
+    }
+
+    @Benchmark
+    public void checkMap() {
+        sim.checkMap();
+    }
+}
@@ -0,0 +1,279 @@
+package kingsheep;
+
+/**
+ * A set of squares on the board, one bit per square, packed into
+ * <code>long</code> words in row-major order (square (x, y) is bit
+ * <code>y * width + x</code>).
+ *
+ * Besides plain set operations, a bitboard can be shifted one square in
+ * any direction, which moves every member at once. This makes flood fills
+ * and "where can I go" questions a handful of word operations per step:
+ *
+ * <pre>
+ *     BitBoard reach = new BitBoard(board.width(), board.height());
+ *     reach.set(x, y);
+ *     for (int steps = 0; steps &lt; 5; ++steps) {
+ *         reach.grow();
+ *         reach.andNot(board.bits(Type.FENCE));
+ *     }
+ * </pre>
+ *
+ * The bitboards handed out by {@link BoardView#bits(Type)} belong to the
+ * game and are read-only; copy them to work on them.
+ */
+public final class BitBoard {
+
+    private final int width;
+    private final int height;
+    private final int size;
+    private final long bits[];
+    private final boolean readOnly;
+
+    /** Work space for {@link #grow()}, made when first needed. */
+    private long scratch[];
+    private long acc[];
+
+    /** Creates an empty bitboard. */
+    public BitBoard(int width, int height) {
+        this(width, height, false);
+    }
+
+    BitBoard(int width, int height, boolean readOnly) {
+        this.width = width;
+        this.height = height;
+        this.size = width * height;
+        this.bits = new long[(size + 63) >>> 6];
+        this.readOnly = readOnly;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /** @return The bit index of square (x, y). */
+    public int index(int x, int y) {
+        return y * width + x;
+    }
+
+    public boolean get(int x, int y) {
+        return get(y * width + x);
+    }
+
+    public boolean get(int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /** @return Number of squares in the set. */
+    public int count() {
+        int n = 0;
+        for (long w : bits)
+            n += Long.bitCount(w);
+        return n;
+    }
+
+    public boolean isEmpty() {
+        for (long w : bits)
+            if (w != 0)
+                return false;
+        return true;
+    }
+
+    /** @return <code>true</code> if the two sets have a square in
+        common. */
+    public boolean intersects(BitBoard o) {
+        for (int i = 0; i < bits.length; ++i)
+            if ((bits[i] & o.bits[i]) != 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return The index of the first square at or after
+     *         <code>from</code> that is in the set, or -1 if there is
+     *         none.
+     */
+    public int next(int from) {
+        if (from >= size)
+            return -1;
+        int i = from >>> 6;
+        long w = bits[i] & (-1L << from);
+        while (true) {
+            if (w != 0) {
+                int index = (i << 6) + Long.numberOfTrailingZeros(w);
+                return index < size ? index : -1;
+            }
+            if (++i == bits.length)
+                return -1;
+            w = bits[i];
+        }
+    }
+
+    /** @return A writable copy of this bitboard. */
+    public BitBoard copy() {
+        BitBoard b = new BitBoard(width, height);
+        System.arraycopy(bits, 0, b.bits, 0, bits.length);
+        return b;
+    }
+
+    /** @return A copy of this bitboard for another board, as writable or
+        read-only as this one. */
+    BitBoard copyForBoard() {
+        BitBoard b = new BitBoard(width, height, readOnly);
+        System.arraycopy(bits, 0, b.bits, 0, bits.length);
+        return b;
+    }
+
+    public void set(int x, int y) {
+        checkWritable();
+        put(y * width + x);
+    }
+
+    public void clear(int x, int y) {
+        checkWritable();
+        remove(y * width + x);
+    }
+
+    /** Removes every square. */
+    public void clear() {
+        checkWritable();
+        for (int i = 0; i < bits.length; ++i)
+            bits[i] = 0;
+    }
+
+    /** Makes this set equal to <code>o</code>. */
+    public void copyFrom(BitBoard o) {
+        checkWritable();
+        System.arraycopy(o.bits, 0, bits, 0, bits.length);
+    }
+
+    public void or(BitBoard o) {
+        checkWritable();
+        for (int i = 0; i < bits.length; ++i)
+            bits[i] |= o.bits[i];
+    }
+
+    public void and(BitBoard o) {
+        checkWritable();
+        for (int i = 0; i < bits.length; ++i)
+            bits[i] &= o.bits[i];
+    }
+
+    public void andNot(BitBoard o) {
+        checkWritable();
+        for (int i = 0; i < bits.length; ++i)
+            bits[i] &= ~o.bits[i];
+    }
+
+    /** Moves every square in the set one step. Squares that would leave
+        the board disappear. */
+    public void shift(Creature.Move m) {
+        checkWritable();
+        shift(bits, m);
+    }
+
+    /** Adds every square next to a square in the set. */
+    public void grow() {
+        checkWritable();
+        if (scratch == null) {
+            scratch = new long[bits.length];
+            acc = new long[bits.length];
+        }
+
+        System.arraycopy(bits, 0, acc, 0, bits.length);
+        for (Creature.Move m : STEPS) {
+            System.arraycopy(bits, 0, scratch, 0, bits.length);
+            shift(scratch, m);
+            for (int i = 0; i < bits.length; ++i)
+                acc[i] |= scratch[i];
+        }
+        System.arraycopy(acc, 0, bits, 0, bits.length);
+    }
+
+    private static final Creature.Move STEPS[] = {
+        Creature.Move.UP, Creature.Move.DOWN,
+        Creature.Move.LEFT, Creature.Move.RIGHT
+    };
+
+    /** Sets bit <code>index</code> without the read-only check. */
+    void put(int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    /** Clears bit <code>index</code> without the read-only check. */
+    void remove(int index) {
+        bits[index >>> 6] &= ~(1L << index);
+    }
+
+    private void shift(long w[], Creature.Move m) {
+        switch (m) {
+        case RIGHT:
+            shift(w, 1);
+            clearColumn(w, 0);
+            break;
+        case LEFT:
+            shift(w, -1);
+            clearColumn(w, width - 1);
+            break;
+        case DOWN:
+            shift(w, width);
+            break;
+        case UP:
+            shift(w, -width);
+            break;
+        default:
+            break;
+        }
+    }
+
+    /** Moves all bits <code>n</code> places towards higher indices (or
+        lower, if <code>n</code> is negative), in place. */
+    private void shift(long w[], int n) {
+        if (n >= 0) {
+            int ws = n >>> 6;
+            int bs = n & 63;
+            for (int i = w.length - 1; i >= 0; --i) {
+                int j = i - ws;
+                long v = 0;
+                if (j >= 0) {
+                    v = w[j] << bs;
+                    if (bs != 0 && j > 0)
+                        v |= w[j - 1] >>> (64 - bs);
+                }
+                w[i] = v;
+            }
+            // Drop whatever was pushed past the last square
+            if ((size & 63) != 0)
+                w[w.length - 1] &= (1L << size) - 1;
+        } else {
+            int ws = -n >>> 6;
+            int bs = -n & 63;
+            for (int i = 0; i < w.length; ++i) {
+                int j = i + ws;
+                long v = 0;
+                if (j < w.length) {
+                    v = w[j] >>> bs;
+                    if (bs != 0 && j + 1 < w.length)
+                        v |= w[j + 1] << (64 - bs);
+                }
+                w[i] = v;
+            }
+        }
+    }
+
+    /** Clears column <code>x</code>, which is where sideways shifts wrap
+        around into the next row. */
+    private void clearColumn(long w[], int x) {
+        for (int i = x; i < size; i += width)
+            w[i >>> 6] &= ~(1L << i);
+    }
+
+    private void checkWritable() {
+        if (readOnly)
+            throw new UnsupportedOperationException
+                ("This bitboard belongs to the game; copy() it first");
+    }
+}
@@ -0,0 +1,171 @@
+package kingsheep;
+
+/**
+ * The game board. Every type has a {@link BitBoard} marking where it is,
+ * and a running count, so questions like "is there any food left?" or
+ * "is there a wolf over there?" don't need a scan. A plain grid of types
+ * is kept alongside for quick lookups of single squares.
+ *
+ * All changes must go through {@link #set(int, int, Type)}.
+ */
+class Board {
+
+    private final Type map[][];
+
+    /** Where each type is, by ordinal. */
+    private final BitBoard bits[] = new BitBoard[Type.values().length];
+
+    /** Number of squares of each type, by ordinal. */
+    private final int count[] = new int[Type.values().length];
+
+    /** Zobrist hashes of the board as each player sees it, kept up to
+        date by {@link #set}. */
+    private final long hash[] = new long[2];
+
+    /** Distances around the fences, made when first needed. */
+    private volatile Distances distances;
+
+    /** How long making this board as a copy of another took, in
+        nanoseconds, or 0 if it wasn't made that way. */
+    final long copyTime;
+
+    /** Creates a board where every square is EMPTY. */
+    Board(int width, int height) {
+        map = new Type[height][width];
+        for (int i = 0; i < bits.length; ++i)
+            bits[i] = new BitBoard(width, height, true);
+
+        BitBoard empty = bits[Type.EMPTY.ordinal()];
+        for (int y = 0; y < height; ++y)
+            for (int x = 0; x < width; ++x) {
+                map[y][x] = Type.EMPTY;
+                empty.put(empty.index(x, y));
+            }
+        count[Type.EMPTY.ordinal()] = width * height;
+        copyTime = 0;
+    }
+
+    /**
+     * Creates a copy of <code>b</code> that can be changed without
+     * changing <code>b</code>. This is a handful of array copies, and the
+     * distances around the fences are shared.
+     */
+    Board(Board b) {
+        long start = System.nanoTime();
+        map = new Type[b.map.length][];
+        for (int y = 0; y < map.length; ++y)
+            map[y] = b.map[y].clone();
+        for (int i = 0; i < bits.length; ++i)
+            bits[i] = b.bits[i].copyForBoard();
+        System.arraycopy(b.count, 0, count, 0, count.length);
+        System.arraycopy(b.hash, 0, hash, 0, hash.length);
+        distances = b.distances;
+        copyTime = System.nanoTime() - start;
+    }
+
+    int width() {
+        return map[0].length;
+    }
+
+    int height() {
+        return map.length;
+    }
+
+    Type get(int x, int y) {
+        return map[y][x];
+    }
+
+    void set(int x, int y, Type t) {
+        Type old = map[y][x];
+        int index = y * map[0].length + x;
+
+        bits[old.ordinal()].remove(index);
+        bits[t.ordinal()].put(index);
+        count[old.ordinal()]--;
+        count[t.ordinal()]++;
+        map[y][x] = t;
+
+        hash[0] ^= Zobrist.key(index, old.ordinal())
+            ^ Zobrist.key(index, t.ordinal());
+        hash[1] ^= Zobrist.key(index, BoardView.swapped(old).ordinal())
+            ^ Zobrist.key(index, BoardView.swapped(t).ordinal());
+    }
+
+    /**
+     * @return The Zobrist hash of the board as player
+     *         <code>playerID</code> sees it (see {@link BoardView}).
+     * @see Zobrist
+     */
+    long hash(int playerID) {
+        return hash[playerID - 1];
+    }
+
+    /** @return The (read-only) set of squares holding <code>t</code>. */
+    BitBoard bits(Type t) {
+        return bits[t.ordinal()];
+    }
+
+    /** @return Number of squares holding <code>t</code>. */
+    int count(Type t) {
+        return count[t.ordinal()];
+    }
+
+    /**
+     * @return The distances around the fences on this board. They're
+     *         worked out the first time they're asked for, which should be
+     *         once all the fences are in place; fences are never moved
+     *         after that.
+     */
+    Distances distances() {
+        Distances d = distances;
+        if (d == null) {
+            synchronized (this) {
+                d = distances;
+                if (d == null)
+                    distances = d = new Distances(this);
+            }
+        }
+        return d;
+    }
+
+    /** @return Number of squares with something a sheep can eat. */
+    int food() {
+        return count[Type.GRASS.ordinal()] + count[Type.RHUBARB.ordinal()];
+    }
+
+    /**
+     * Recounts the whole board and compares with the running counts and
+     * the bitboards.
+     *
+     * @throws IllegalStateException if they don't match.
+     */
+    void verify() {
+        int actual[] = new int[count.length];
+        long h1 = 0;
+        long h2 = 0;
+        for (int y = 0; y < map.length; ++y)
+            for (int x = 0; x < map[y].length; ++x) {
+                Type t = map[y][x];
+                int index = y * map[y].length + x;
+                actual[t.ordinal()]++;
+                h1 ^= Zobrist.key(index, t.ordinal());
+                h2 ^= Zobrist.key(index, BoardView.swapped(t).ordinal());
+                if (!bits[t.ordinal()].get(x, y))
+                    throw new IllegalStateException
+                        ("Bitboard for " + t + " is missing (" + x + ", "
+                         + y + ")");
+            }
+
+        for (Type t : Type.values()) {
+            int i = t.ordinal();
+            if (actual[i] != count[i] || bits[i].count() != count[i])
+                throw new IllegalStateException
+                    ("Board has " + actual[i] + " " + t + " but counted "
+                     + count[i] + " and the bitboard has "
+                     + bits[i].count());
+        }
+
+        if (h1 != hash[0] || h2 != hash[1])
+            throw new IllegalStateException("Board hash is out of date");
+    }
+}
@@ -0,0 +1,171 @@
+package kingsheep;
+
+/**
+ * A read-only window onto the live game board, as seen by one player.
+ *
+ * Player 2 sees the board with the teams swapped, so that every creature
+ * can think of itself as SHEEP1/WOLF1 and the enemy as SHEEP2/WOLF2. The
+ * swap is applied on lookup, so nothing is copied between turns.
+ *
+ * The view must only be used from inside <code>think</code>; the board
+ * changes between turns.
+ */
+public final class BoardView {
+
+    /** What each type looks like to player 2, by ordinal. */
+    private static final Type SWAPPED[] = new Type[Type.values().length];
+
+    static {
+        for (Type t : Type.values())
+            SWAPPED[t.ordinal()] = t;
+        SWAPPED[Type.SHEEP1.ordinal()] = Type.SHEEP2;
+        SWAPPED[Type.SHEEP2.ordinal()] = Type.SHEEP1;
+        SWAPPED[Type.WOLF1.ordinal()] = Type.WOLF2;
+        SWAPPED[Type.WOLF2.ordinal()] = Type.WOLF1;
+    }
+
+    private final Board map;
+    private final boolean swap;
+
+    /** The game being played, if any. */
+    private final Simulator sim;
+
+    /** The creature the view is for, if any. */
+    private final Creature creature;
+
+    BoardView(Board map, int playerID) {
+        this(map, playerID, null);
+    }
+
+    BoardView(Board map, int playerID, Simulator sim) {
+        this(map, playerID, sim, null);
+    }
+
+    BoardView(Board map, int playerID, Simulator sim, Creature creature) {
+        this.map = map;
+        this.swap = playerID == 2;
+        this.sim = sim;
+        this.creature = creature;
+    }
+
+    /** @return What <code>t</code> looks like to player 2. */
+    static Type swapped(Type t) {
+        return SWAPPED[t.ordinal()];
+    }
+
+    /** @return Number of squares across. */
+    public int width() {
+        return map.width();
+    }
+
+    /** @return Number of squares down. */
+    public int height() {
+        return map.height();
+    }
+
+    /** @return <code>true</code> if (x, y) is on the board. */
+    public boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < map.width() && y < map.height();
+    }
+
+    /**
+     * @return What is on square (x, y), from this player's point of view.
+     */
+    public Type get(int x, int y) {
+        Type t = map.get(x, y);
+        return swap ? SWAPPED[t.ordinal()] : t;
+    }
+
+    /**
+     * @return The squares holding <code>t</code>, from this player's point
+     *         of view. The bitboard is the game's own, so it can't be
+     *         changed, and it follows the game as it goes on.
+     */
+    public BitBoard bits(Type t) {
+        return map.bits(swap ? SWAPPED[t.ordinal()] : t);
+    }
+
+    /**
+     * @return The number of steps from (fromX, fromY) to (toX, toY), going
+     *         around fences but nothing else, or
+     *         {@link DistanceField#UNREACHABLE}. This is a table lookup.
+     */
+    public int distance(int fromX, int fromY, int toX, int toY) {
+        return map.distances().to(toX, toY).get(fromX, fromY);
+    }
+
+    /**
+     * @return The number of steps from every square to (x, y), going
+     *         around fences but nothing else. The field is shared and
+     *         stays right for the whole game.
+     */
+    public DistanceField distancesTo(int x, int y) {
+        return map.distances().to(x, y);
+    }
+
+    /**
+     * Like {@link #distance(int, int, int, int)}, but also going around
+     * the squares in <code>blocked</code> (say, the other creatures). The
+     * start and the target themselves are never blocked.
+     *
+     * This searches only as far as the blocked squares force it to, so it
+     * costs little more than the plain lookup when they're out of the way.
+     *
+     * @param blocked Squares to go around, or <code>null</code>.
+     */
+    public int distance(int fromX, int fromY, int toX, int toY,
+                        BitBoard blocked) {
+        int length[] = new int[1];
+        map.distances().path(fromX, fromY, toX, toY, blocked, length);
+        return length[0];
+    }
+
+    /**
+     * @return The first step of a shortest way from (fromX, fromY) to
+     *         (toX, toY), going around fences and the squares in
+     *         <code>blocked</code> (which may be <code>null</code>).
+     *         {@link Creature.Move#WAIT} if already there, and
+     *         <code>null</code> if there is no way.
+     */
+    public Creature.Move towards(int fromX, int fromY, int toX, int toY,
+                                 BitBoard blocked) {
+        return map.distances().path(fromX, fromY, toX, toY, blocked,
+                                    new int[1]);
+    }
+
+    /**
+     * @return A Zobrist hash of the board as this player sees it. The game
+     *         keeps it up to date as creatures move, so this costs
+     *         nothing. See {@link GameState#hash()} for one that also
+     *         covers the scores and whose move it is.
+     */
+    public long hash() {
+        return map.hash(swap ? 2 : 1);
+    }
+
+    /**
+     * @return A copy of the whole game as it is now, from this player's
+     *         point of view, with this creature to move. Search ahead in
+     *         it as much as you like; the real game isn't touched.
+     * @throws IllegalStateException if the view isn't part of a game.
+     */
+    public GameState state() {
+        if (sim == null)
+            throw new IllegalStateException("Not in a game");
+        return new GameState(sim, swap ? 2 : 1,
+                             creature == null ? -1 : sim.creatureID(creature));
+    }
+
+    /**
+     * Copies the board into a fresh array, the way the classic
+     * <code>think(Type[][])</code> API expects it. Indexed as
+     * <code>[y][x]</code>.
+     */
+    public Type[][] toArray() {
+        Type copy[][] = new Type[map.height()][map.width()];
+        for (int i = 0; i < copy.length; ++i)
+            for (int j = 0; j < copy[i].length; ++j)
+                copy[i][j] = get(j, i);
+        return copy;
+    }
+}
@@ -1,5 +1,7 @@
 package kingsheep;
 
+import java.util.Random;
+
 public abstract class Creature {
 
     protected enum Move { WAIT, UP, DOWN, LEFT, RIGHT }
@@ -11,6 +13,23 @@ public abstract class Creature {
     public int y;
     public boolean alive;
 
+    /** The board as this creature sees it. Set up by the simulator. */
+    BoardView view;
+
+    /** This creature's own random numbers, seeded by the simulator. */
+    Random random = new Random();
+
+    /** Made when first asked for. */
+    private TranspositionTable transpositions;
+
+    /** Hands the board to <code>think</code>. Made once so that the
+        simulator doesn't need a new task every turn. */
+    final Runnable planner = new Runnable() {
+            public void run() {
+                think(view);
+            }
+        };
+
     protected Creature(Type type, int playerID, int x, int y) {
         this.type = type;
         this.playerID = playerID;
@@ -38,8 +57,46 @@ public abstract class Creature {
     }
 
     /** Make a movement plan by setting <code>move</code> to one of type
-        <code>Move</code>. */
-    protected abstract void think(Type map[][]);
+        <code>Move</code>.
+
+        The default implementation copies the board and passes it on to
+        {@link #think(Type[][])}. Override this one instead to look at the
+        board without any copying. A creature must override one of the
+        two; {@link TeamLoader} won't load one that overrides neither. */
+    protected void think(BoardView board) {
+        think(board.toArray());
+    }
+
+    /** Make a movement plan by setting <code>move</code> to one of type
+        <code>Move</code>. The map is a private copy, already filtered so
+        that this creature's team is player 1. This used to be the only
+        <code>think</code>, and abstract; creatures that override
+        {@link #think(BoardView)} instead never get here. */
+    protected void think(Type map[][]) {
+    }
+
+    /**
+     * @return A random number generator for this creature alone. It is
+     *         seeded from the game's seed, so using this rather than
+     *         <code>Math.random()</code> makes games repeatable, and
+     *         doesn't compete with other games for a shared generator.
+     */
+    protected final Random random() {
+        return random;
+    }
+
+    /**
+     * @return A transposition table for this creature's searches. It is
+     *         made the first time it's asked for and kept for the rest of
+     *         the game, so what one <code>think</code> found out is still
+     *         there in the next.
+     */
+    protected final TranspositionTable transpositions() {
+        if (transpositions == null)
+            transpositions = new TranspositionTable
+                (TranspositionTable.DEFAULT_MEGABYTES);
+        return transpositions;
+    }
 
     public boolean isSheep() {
         return type == Type.SHEEP1 || type == Type.SHEEP2;
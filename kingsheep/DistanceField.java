@@ -0,0 +1,103 @@
+package kingsheep;
+
+import java.util.Arrays;
+
+/**
+ * How many steps it is from every square on the board to one target
+ * square, going around fences. Fences never move, so a field stays right
+ * for the whole game, and the game shares them between all creatures.
+ *
+ * Fields are read-only. Creatures and other things that block the way
+ * aren't taken into account; see
+ * {@link BoardView#distance(int, int, int, int, BitBoard)} for that.
+ */
+public final class DistanceField {
+
+    /** The distance to squares the target can't be reached from. */
+    public static final int UNREACHABLE = -1;
+
+    private final int width;
+    private final int height;
+    private final int targetX;
+    private final int targetY;
+    private final int dist[];
+
+    /**
+     * Works out the distances to (x, y) with a breadth first search.
+     *
+     * @param wall Which squares can't be walked on, by bit index.
+     * @param queue Work space, at least <code>width * height</code> long.
+     */
+    DistanceField(int width, int height, BitBoard wall, int x, int y,
+                  int queue[]) {
+        this.width = width;
+        this.height = height;
+        this.targetX = x;
+        this.targetY = y;
+        dist = new int[width * height];
+        Arrays.fill(dist, UNREACHABLE);
+
+        int start = y * width + x;
+        if (wall.get(start))
+            return;
+
+        int head = 0;
+        int tail = 0;
+        dist[start] = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            int i = queue[head++];
+            int d = dist[i] + 1;
+            int cx = i % width;
+            if (cx > 0 && dist[i - 1] == UNREACHABLE && !wall.get(i - 1)) {
+                dist[i - 1] = d;
+                queue[tail++] = i - 1;
+            }
+            if (cx < width - 1 && dist[i + 1] == UNREACHABLE
+                && !wall.get(i + 1)) {
+                dist[i + 1] = d;
+                queue[tail++] = i + 1;
+            }
+            if (i >= width && dist[i - width] == UNREACHABLE
+                && !wall.get(i - width)) {
+                dist[i - width] = d;
+                queue[tail++] = i - width;
+            }
+            if (i + width < dist.length && dist[i + width] == UNREACHABLE
+                && !wall.get(i + width)) {
+                dist[i + width] = d;
+                queue[tail++] = i + width;
+            }
+        }
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int targetX() {
+        return targetX;
+    }
+
+    public int targetY() {
+        return targetY;
+    }
+
+    /**
+     * @return Number of steps from (x, y) to the target, or
+     *         {@link #UNREACHABLE}.
+     */
+    public int get(int x, int y) {
+        return dist[y * width + x];
+    }
+
+    /** @return Distance from the square with bit index
+        <code>index</code>. */
+    int get(int index) {
+        return dist[index];
+    }
+}
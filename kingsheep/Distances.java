@@ -0,0 +1,372 @@
+package kingsheep;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@link DistanceField}s of one map. They only depend on where the
+ * fences are, which never changes, so they're worked out once and shared
+ * by everyone playing on the map.
+ *
+ * On small maps every field is worked out up front. On big ones that
+ * would take far too much memory, so fields are made when first asked for
+ * and the most recently used ones are kept.
+ *
+ * Creatures ask from their own threads (and abandoned thinkers may still
+ * be asking when the next creature starts), so this is thread safe.
+ */
+final class Distances {
+
+    /** Maps with no more squares than this get all their fields up
+        front. */
+    static final int ALL_PAIRS = 1024;
+
+    /** How many squares' worth of fields to keep on big maps (at four
+        bytes a square). */
+    private static final int CACHE_SQUARES = 16 * 1024 * 1024;
+
+    /** How many idle searches to keep for reuse. */
+    private static final int POOL = 4;
+
+    /** Searches that grew bigger than this many squares (or stack
+        entries) aren't kept after they're done. */
+    private static final int KEEP = 64 * 1024;
+
+    private final int width;
+    private final int height;
+    private final BitBoard wall;
+
+    /** Every field by target bit index, on small maps. */
+    private final DistanceField all[];
+
+    /** The most recently used fields by target bit index, on big maps. */
+    private final Map<Integer, DistanceField> cache;
+
+    /** Work space for searches around blocked squares, kept for the
+        next search. Guarded by itself. */
+    private final ArrayDeque<Search> idle = new ArrayDeque<Search>();
+
+    Distances(Board map) {
+        width = map.width();
+        height = map.height();
+        wall = map.bits(Type.FENCE).copy();
+
+        int size = width * height;
+        if (size <= ALL_PAIRS) {
+            all = new DistanceField[size];
+            int queue[] = new int[size];
+            for (int i = 0; i < size; ++i)
+                all[i] = new DistanceField(width, height, wall, i % width,
+                                           i / width, queue);
+            cache = null;
+        } else {
+            all = null;
+            final int keep = Math.max(1, CACHE_SQUARES / size);
+            cache = new LinkedHashMap<Integer, DistanceField>(16, 0.75f,
+                                                               true) {
+                    protected boolean removeEldestEntry
+                        (Map.Entry<Integer, DistanceField> eldest) {
+                        return size() > keep;
+                    }
+                };
+        }
+    }
+
+    /** @return The distances from every square to (x, y). */
+    DistanceField to(int x, int y) {
+        int index = y * width + x;
+        if (all != null)
+            return all[index];
+
+        synchronized (cache) {
+            DistanceField f = cache.get(index);
+            if (f != null)
+                return f;
+        }
+        // Worked out outside the lock; two threads may both do it, which
+        // is harmless
+        DistanceField f = new DistanceField(width, height, wall, x, y,
+                                            new int[width * height]);
+        synchronized (cache) {
+            cache.put(index, f);
+        }
+        return f;
+    }
+
+    /**
+     * Finds a shortest path that also goes around the squares in
+     * <code>blocked</code>. The start and the target are never counted as
+     * blocked.
+     *
+     * @return The first step of the path, or <code>null</code> if there
+     *         is no way through. {@link Creature.Move#WAIT} if the start
+     *         is the target.
+     * @param length Set to the length of the path in
+     *        <code>length[0]</code>, or {@link DistanceField#UNREACHABLE}.
+     */
+    Creature.Move path(int fromX, int fromY, int toX, int toY,
+                       BitBoard blocked, int length[]) {
+        DistanceField h = to(toX, toY);
+        int start = fromY * width + fromX;
+        int target = toY * width + toX;
+        length[0] = h.get(start);
+
+        if (start == target)
+            return Creature.Move.WAIT;
+        if (length[0] == DistanceField.UNREACHABLE)
+            return null;
+
+        // On small maps it's cheap to check whether anything is in the
+        // way at all; if not, just walk downhill
+        if (blocked == null
+            || (all != null && !onShortestPaths(h, start, blocked, target)))
+            return downhill(h, start);
+
+        Search s;
+        synchronized (idle) {
+            s = idle.poll();
+        }
+        if (s == null)
+            s = new Search();
+        try {
+            return s.run(h, start, target, blocked, length);
+        } finally {
+            if (s.small())
+                synchronized (idle) {
+                    if (idle.size() < POOL)
+                        idle.push(s);
+                }
+        }
+    }
+
+    /**
+     * @return <code>false</code> if none of the blocked squares are on
+     *         any shortest path, so they can't make the path longer.
+     */
+    private boolean onShortestPaths(DistanceField h, int start,
+                                    BitBoard blocked, int target) {
+        DistanceField g = to(start % width, start / width);
+        int best = h.get(start);
+        for (int i = blocked.next(0); i != -1; i = blocked.next(i + 1)) {
+            if (i == start || i == target)
+                continue;
+            int a = g.get(i);
+            int b = h.get(i);
+            if (a != DistanceField.UNREACHABLE
+                && b != DistanceField.UNREACHABLE && a + b == best)
+                return true;
+        }
+        return false;
+    }
+
+    /** @return The step from <code>from</code> to a neighbour closer to
+        the target. */
+    private Creature.Move downhill(DistanceField h, int from) {
+        int d = h.get(from);
+        int x = from % width;
+        if (x > 0 && h.get(from - 1) == d - 1)
+            return Creature.Move.LEFT;
+        if (x < width - 1 && h.get(from + 1) == d - 1)
+            return Creature.Move.RIGHT;
+        if (from >= width && h.get(from - width) == d - 1)
+            return Creature.Move.UP;
+        return Creature.Move.DOWN;
+    }
+
+    /**
+     * An A* search towards one target, using that target's distance field
+     * as the estimate. The estimate is exact apart from the blocked
+     * squares, so the search goes straight there when nothing is in the
+     * way and only spreads out around the obstacles.
+     *
+     * Since the estimate changes by exactly one each step, the estimated
+     * total of a square's neighbours is either the same as its own or two
+     * more. So two stacks do the job of a priority queue: one for the
+     * current total, and one for the next.
+     *
+     * The squares reached are kept in a hash table rather than arrays the
+     * size of the map, so a search takes memory in proportion to how far
+     * it spreads, which is usually not far.
+     */
+    private final class Search {
+
+        /** Slots in a new table. */
+        private static final int INITIAL = 256;
+
+        /** An open addressing table of the squares reached: the square,
+            its steps from the start and where we came from, valid in
+            slots stamped with the current search. */
+        private int square[] = new int[INITIAL];
+        private int cost[] = new int[INITIAL];
+        private int from[] = new int[INITIAL];
+        private int stamp[] = new int[INITIAL];
+        private int shift = 32 - Integer.numberOfTrailingZeros(INITIAL);
+        private int count;
+        private int current = 0;
+
+        /** The two stacks; they grow as needed. */
+        private int now[] = new int[256];
+        private int next[] = new int[256];
+
+        /** @return <code>true</code> if the search is small enough to be
+            worth keeping. */
+        boolean small() {
+            return square.length <= KEEP && now.length <= KEEP
+                && next.length <= KEEP;
+        }
+
+        /** @return The slot of square <code>i</code>, or the empty slot
+            it would go in. */
+        private int slot(int i) {
+            int mask = square.length - 1;
+            int k = (i * 0x9e3779b9) >>> shift;
+            while (stamp[k] == current && square[k] != i)
+                k = (k + 1) & mask;
+            return k;
+        }
+
+        /** @return The slot of square <code>i</code>, which is put in the
+            table if it isn't there yet. */
+        private int put(int i) {
+            int k = slot(i);
+            if (stamp[k] == current)
+                return k;
+            if (++count * 2 > square.length) {
+                grow();
+                k = slot(i);
+            }
+            stamp[k] = current;
+            square[k] = i;
+            return k;
+        }
+
+        /** Doubles the table, keeping what's in it. */
+        private void grow() {
+            int oldSquare[] = square;
+            int oldCost[] = cost;
+            int oldFrom[] = from;
+            int oldStamp[] = stamp;
+            int size = oldSquare.length * 2;
+            square = new int[size];
+            cost = new int[size];
+            from = new int[size];
+            stamp = new int[size];
+            shift--;
+            for (int k = 0; k < oldSquare.length; ++k) {
+                if (oldStamp[k] != current)
+                    continue;
+                int n = slot(oldSquare[k]);
+                stamp[n] = current;
+                square[n] = oldSquare[k];
+                cost[n] = oldCost[k];
+                from[n] = oldFrom[k];
+            }
+        }
+
+        Creature.Move run(DistanceField h, int start, int target,
+                          BitBoard blocked, int length[]) {
+            if (++current == 0) {
+                Arrays.fill(stamp, 0);
+                current = 1;
+            }
+            count = 0;
+
+            int size = width * height;
+            int nowSize = 0;
+            int nextSize = 0;
+            int nowStack[] = now;
+            int nextStack[] = next;
+
+            int s = put(start);
+            cost[s] = 0;
+            from[s] = -1;
+            nowStack[nowSize++] = start;
+
+            while (nowSize > 0) {
+                while (nowSize > 0) {
+                    int i = nowStack[--nowSize];
+                    int ci = cost[slot(i)];
+                    if (i == target) {
+                        now = nowStack;
+                        next = nextStack;
+                        length[0] = ci;
+                        return firstStep(start, target);
+                    }
+
+                    int f = ci + h.get(i);
+                    int x = i % width;
+                    for (int k = 0; k < 4; ++k) {
+                        int j;
+                        if (k == 0) {
+                            if (x == 0) continue;
+                            j = i - 1;
+                        } else if (k == 1) {
+                            if (x == width - 1) continue;
+                            j = i + 1;
+                        } else if (k == 2) {
+                            if (i < width) continue;
+                            j = i - width;
+                        } else {
+                            j = i + width;
+                            if (j >= size) continue;
+                        }
+
+                        int hj = h.get(j);
+                        if (hj == DistanceField.UNREACHABLE)
+                            continue;
+                        if (j != target && blocked.get(j))
+                            continue;
+                        int c = ci + 1;
+                        int sj = slot(j);
+                        if (stamp[sj] == current && cost[sj] <= c)
+                            continue;
+
+                        sj = put(j);
+                        cost[sj] = c;
+                        from[sj] = i;
+                        if (c + hj == f) {
+                            if (nowSize == nowStack.length)
+                                nowStack = Arrays.copyOf(nowStack,
+                                                         nowSize * 2);
+                            nowStack[nowSize++] = j;
+                        } else {
+                            if (nextSize == nextStack.length)
+                                nextStack = Arrays.copyOf(nextStack,
+                                                          nextSize * 2);
+                            nextStack[nextSize++] = j;
+                        }
+                    }
+                }
+
+                int swap[] = nowStack;
+                nowStack = nextStack;
+                nextStack = swap;
+                nowSize = nextSize;
+                nextSize = 0;
+            }
+
+            // Keep the stacks, however big they got
+            now = nowStack;
+            next = nextStack;
+            length[0] = DistanceField.UNREACHABLE;
+            return null;
+        }
+
+        /** @return The step out of <code>start</code> on the way found to
+            <code>target</code>. */
+        private Creature.Move firstStep(int start, int target) {
+            int i = target;
+            for (int f; (f = from[slot(i)]) != start; )
+                i = f;
+            if (i == start - 1)
+                return Creature.Move.LEFT;
+            if (i == start + 1)
+                return Creature.Move.RIGHT;
+            if (i == start - width)
+                return Creature.Move.UP;
+            return Creature.Move.DOWN;
+        }
+    }
+}
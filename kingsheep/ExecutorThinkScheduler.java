@@ -0,0 +1,158 @@
+package kingsheep;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs think tasks on an {@link ExecutorService}, keeping the timeout
+ * semantics the simulator has always had: the caller blocks until the
+ * task is done or over budget, and stray interrupts of the caller don't
+ * cut the wait short.
+ */
+abstract class ExecutorThinkScheduler implements ThinkScheduler {
+
+    private final ExecutorService executor;
+    private final AtomicInteger abandoned = new AtomicInteger();
+
+    /** Set on a thread whose thinker was abandoned, once the thinker has
+        finally returned. */
+    private static final ThreadLocal<Boolean> retiring =
+        new ThreadLocal<Boolean>();
+
+    ExecutorThinkScheduler(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /** Remembers which thread is running a task, so that it can be marked
+        if it has to be abandoned, and how much CPU time it has used. */
+    private static class Thinker implements Runnable {
+        private final Runnable task;
+        volatile Thread runner;
+        private volatile long cpuStart;
+        private volatile long cpuUsed = -1;
+        private volatile boolean done;
+        private volatile boolean abandoned;
+
+        Thinker(Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            cpuStart = ThinkBudget.cpuTime();
+            runner = Thread.currentThread();
+            try {
+                task.run();
+            } finally {
+                long end = ThinkBudget.cpuTime();
+                if (end >= 0 && cpuStart >= 0)
+                    cpuUsed = end - cpuStart;
+                done = true;
+                runner = null;
+                // The thread has been marked (or is about to be) as
+                // abandoned, so it must not think for anyone else
+                if (abandoned)
+                    retiring.set(Boolean.TRUE);
+            }
+        }
+
+        /** @return CPU time used by the task so far, or -1 if it isn't
+            known. */
+        long cpu() {
+            if (done)
+                return cpuUsed;
+            Thread t = runner;
+            if (t == null)
+                return done ? cpuUsed : 0;
+            long now = ThinkBudget.cpuTime(t.getId());
+            if (now < 0 || cpuStart < 0)
+                return -1;
+            return Math.max(0, now - cpuStart);
+        }
+    }
+
+    public boolean think(Runnable task, ThinkBudget.Meter meter) {
+        Thinker thinker = new Thinker(task);
+        return await(thinker, executor.submit(thinker), meter);
+    }
+
+    public void thinkAll(Runnable tasks[], ThinkBudget.Meter meters[],
+                         boolean finished[]) {
+        Thinker thinkers[] = new Thinker[tasks.length];
+        Future<?> futures[] = new Future<?>[tasks.length];
+        for (int i = 0; i < tasks.length; ++i) {
+            thinkers[i] = new Thinker(tasks[i]);
+            futures[i] = executor.submit(thinkers[i]);
+        }
+
+        // They all run while we wait for any one of them, so waiting for
+        // each in turn takes no longer than the slowest
+        for (int i = 0; i < tasks.length; ++i)
+            finished[i] = await(thinkers[i], futures[i], meters[i]);
+    }
+
+    /** Waits for a submitted task to finish or go over budget. */
+    private boolean await(Thinker thinker, Future<?> future,
+                          ThinkBudget.Meter meter) {
+        while (true) {
+            meter.update(thinker.cpu());
+            long wait = meter.remaining();
+            if (wait == 0) {
+                abandon(thinker, future);
+                return false;
+            }
+
+            try {
+                future.get(wait, TimeUnit.NANOSECONDS);
+                meter.update(thinker.cpu());
+                return true;
+            } catch (InterruptedException e) {
+                continue;
+            } catch (ExecutionException e) {
+                // A crashing AI simply doesn't get to change its plan
+                e.getCause().printStackTrace();
+                meter.update(thinker.cpu());
+                return true;
+            } catch (TimeoutException e) {
+                // Not necessarily over budget yet (it may have been
+                // waiting for the CPU); check again
+                continue;
+            }
+        }
+    }
+
+    /** Interrupts a runaway thinker and lets go of its thread. */
+    private void abandon(Thinker thinker, Future<?> future) {
+        // Marked before looking at the runner: either the thinker sees
+        // the mark on its way out, or it's gone and there's no runner
+        thinker.abandoned = true;
+        future.cancel(true);
+        abandoned.incrementAndGet();
+
+        Thread t = thinker.runner;
+        if (t != null) {
+            t.setName(t.getName() + " (abandoned)");
+            t.setPriority(Thread.MIN_PRIORITY);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if this thread ran a thinker that was
+     *         abandoned, and has got it back at last. A pool must let such
+     *         a thread die rather than give it more work.
+     */
+    static boolean retiring() {
+        return retiring.get() != null;
+    }
+
+    public int abandoned() {
+        return abandoned.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,64 @@
+package kingsheep;
+
+/**
+ * Receives notifications from a running {@link Simulator}.
+ *
+ * Observers are called on the simulation thread, so anything slow (like
+ * painting) should be handed off elsewhere.
+ */
+interface GameObserver {
+
+    /** Called once before the first move, with the board as it was
+     *  loaded.
+     *
+     *  @param sim
+     *         The simulator running the game.
+     */
+    void gameStarted(Simulator sim);
+
+    /** Called right before a creature is asked to think.
+     *
+     *  @param sim
+     *         The simulator running the game.
+     *  @param c
+     *         Creature whose turn it is to move.
+     */
+    void turnStarted(Simulator sim, Creature c);
+
+    /** Called after a creature's plan has been carried out.
+     *
+     *  @param sim
+     *         The simulator running the game.
+     *  @param c
+     *         Creature that moved.
+     *  @param move
+     *         What it planned to do (it may have bumped into something).
+     *  @param thinkTime
+     *         Nanoseconds it spent thinking.
+     */
+    void moved(Simulator sim, Creature c, Creature.Move move,
+               long thinkTime);
+
+    /** Called when a creature is thrown out of the game.
+     *
+     *  @param sim
+     *         The simulator running the game.
+     *  @param c
+     *         Creature that misbehaved.
+     *  @param foul
+     *         What it did.
+     *  @param thinkTime
+     *         Nanoseconds it spent thinking.
+     */
+    void disqualified(Simulator sim, Creature c, Simulator.Foul foul,
+                      long thinkTime);
+
+    /** Called once when the game is over.
+     *
+     *  @param sim
+     *         The simulator running the game.
+     *  @param result
+     *         The outcome of the game.
+     */
+    void gameOver(Simulator sim, MatchResult result);
+}
@@ -0,0 +1,620 @@
+package kingsheep;
+
+import java.util.Arrays;
+
+/**
+ * A copy of a whole game that a creature can play ahead in, by the same
+ * rules as the real game, to search for a good move.
+ *
+ * Like {@link BoardView}, a state is seen from one player's point of view:
+ * the player who asked for it is always player 1, with SHEEP1 and WOLF1.
+ * Creatures are numbered as in {@link #MY_SHEEP} and so on.
+ *
+ * Moves are made with {@link #make} and taken back with {@link #unmake},
+ * in the order the game would make them. Neither allocates anything (apart
+ * from now and then growing the undo stack), so a search can make millions
+ * of moves a second. {@link #copy} and {@link #copyFrom} give a search
+ * states of its own to work on in other threads.
+ *
+ * In simultaneous play (see {@link Simulator#setSimultaneous}), a round's
+ * creatures each choose a move with {@link #make}, the creature that asked
+ * for the state first and then the rest in the order the round is carried
+ * out, and nothing happens until the last of them has chosen. Then the
+ * whole round is carried out as the game would. {@link #toMove} is whoever
+ * chooses next, and {@link #unmake} takes back one choice, along with the
+ * round it completed if it did.
+ *
+ * A state is not thread safe, and knows nothing about thinking time or
+ * disqualifications.
+ */
+public final class GameState {
+
+    public static final int MY_SHEEP = 0;
+    public static final int THEIR_SHEEP = 1;
+    public static final int MY_WOLF = 2;
+    public static final int THEIR_WOLF = 3;
+
+    private static final Type TYPES[] = Type.values();
+    private static final int T = TYPES.length;
+
+    /** The creatures' types, by creature number. */
+    private static final byte CREATURE[] = {
+        (byte)Type.SHEEP1.ordinal(), (byte)Type.SHEEP2.ordinal(),
+        (byte)Type.WOLF1.ordinal(), (byte)Type.WOLF2.ordinal()
+    };
+
+    private static final Creature.Move MOVES[] = Creature.Move.values();
+
+    /** Ints per move on the undo stack. */
+    private static final int FRAME = 7;
+
+    /** Marks a move made while carrying out a round, which is taken back
+        along with the choice that completed the round. */
+    private static final int CONTINUED = 1 << 13;
+
+    /** The rules, as tables indexed by mover * T + target, from this
+        player's point of view. Shared between copies. */
+    private final boolean blocks[];
+    private final int points[];
+    private final byte victim[];
+
+    /** Creature numbers in the order they move each turn. Shared. */
+    private final int order[];
+
+    /** In simultaneous play, where the round starting at each step of
+        <code>order</code> ends; <code>null</code> otherwise. Shared. */
+    private final int roundEnd[];
+
+    private final int width;
+    private final int height;
+
+    /** Type ordinals, row after row. */
+    private final byte cells[];
+
+    private final int x[] = new int[4];
+    private final int y[] = new int[4];
+    private final boolean alive[] = new boolean[4];
+    private final int score[] = new int[2];
+
+    private int food;
+    private int turn;
+
+    /** Zobrist hash of <code>cells</code>. */
+    private long board;
+
+    /** Where in <code>order</code> the next move is. */
+    private int step;
+
+    /** As {@link #winner()}. */
+    private int winner;
+
+    /** In simultaneous play, the creatures that have chosen their move
+        this round, as bits, and what they chose, by creature. */
+    private int chosen;
+    private final int choice[] = new int[4];
+
+    /** In simultaneous play, the creature that chooses first this round
+        (the one that asked for the state), or -1 if none does. */
+    private int first;
+
+    private int undo[] = new int[FRAME * 64];
+    private int depth;
+
+    /** Number of moves made that can be taken back. */
+    private int made;
+
+    /**
+     * Copies the game as it is right now, for one player.
+     *
+     * @param playerID The player to see the game as.
+     * @param creature The creature that asked, as
+     *        {@link Simulator#creatureID}, or -1. In simultaneous play it
+     *        chooses its move first.
+     */
+    GameState(Simulator sim, int playerID, int creature) {
+        boolean swap = playerID == 2;
+        Board map = sim.getBoard();
+        Rules rules = sim.getRules();
+
+        blocks = new boolean[T * T];
+        points = new int[T * T];
+        victim = new byte[T * T];
+        for (Type m : TYPES)
+            for (Type t : TYPES) {
+                Type sm = swap(m, swap);
+                Type st = swap(t, swap);
+                int i = m.ordinal() * T + t.ordinal();
+                blocks[i] = rules.blocks(sm, st);
+                points[i] = rules.score(sm, st);
+                Type v = rules.victim(sm, st);
+                victim[i] = (byte)(v == null ? -1
+                                   : swap(v, swap).ordinal());
+            }
+
+        order = new int[sim.queueLength()];
+        for (int i = 0; i < order.length; ++i)
+            order[i] = sim.queued(i) ^ (swap ? 1 : 0);
+        if (sim.isSimultaneous()) {
+            roundEnd = new int[order.length];
+            for (int r = 0; r + 1 < Simulator.ROUNDS.length; ++r)
+                roundEnd[Simulator.ROUNDS[r]] = Simulator.ROUNDS[r + 1];
+        } else {
+            roundEnd = null;
+        }
+
+        width = map.width();
+        height = map.height();
+        cells = new byte[width * height];
+        for (int i = 0, yy = 0; yy < height; ++yy)
+            for (int xx = 0; xx < width; ++xx, ++i)
+                cells[i] = (byte)swap(map.get(xx, yy), swap).ordinal();
+        food = map.food();
+        board = map.hash(playerID);
+
+        for (int id = 0; id < 4; ++id) {
+            Creature c = sim.creature(id ^ (swap ? 1 : 0));
+            x[id] = c.x;
+            y[id] = c.y;
+            alive[id] = c.alive;
+        }
+        score[0] = sim.getPlayer(swap ? 1 : 0).score;
+        score[1] = sim.getPlayer(swap ? 0 : 1).score;
+
+        turn = sim.getTurn();
+        step = sim.getStep();
+        int w = sim.getWinner();
+        winner = swap && w > 0 ? 3 - w : w;
+        first = roundEnd != null && creature != -1
+            ? creature ^ (swap ? 1 : 0) : -1;
+    }
+
+    private GameState(GameState s) {
+        blocks = s.blocks;
+        points = s.points;
+        victim = s.victim;
+        order = s.order;
+        roundEnd = s.roundEnd;
+        width = s.width;
+        height = s.height;
+        cells = new byte[s.cells.length];
+        copyFrom(s);
+    }
+
+    private static Type swap(Type t, boolean swap) {
+        return swap ? BoardView.swapped(t) : t;
+    }
+
+    /** @return A copy of this state, without its undo history. */
+    public GameState copy() {
+        return new GameState(this);
+    }
+
+    /**
+     * Makes this state the same as <code>s</code>, without its undo
+     * history. Reusing a state this way saves making a new one.
+     *
+     * @throws IllegalArgumentException if <code>s</code> is from another
+     *         game.
+     */
+    public void copyFrom(GameState s) {
+        if (s.order != order)
+            throw new IllegalArgumentException("Not the same game");
+        System.arraycopy(s.cells, 0, cells, 0, cells.length);
+        System.arraycopy(s.x, 0, x, 0, 4);
+        System.arraycopy(s.y, 0, y, 0, 4);
+        System.arraycopy(s.alive, 0, alive, 0, 4);
+        score[0] = s.score[0];
+        score[1] = s.score[1];
+        food = s.food;
+        board = s.board;
+        turn = s.turn;
+        step = s.step;
+        winner = s.winner;
+        chosen = s.chosen;
+        System.arraycopy(s.choice, 0, choice, 0, 4);
+        first = s.first;
+        depth = 0;
+        made = 0;
+    }
+
+    /** @return Number of squares across. */
+    public int width() {
+        return width;
+    }
+
+    /** @return Number of squares down. */
+    public int height() {
+        return height;
+    }
+
+    /** @return What is on square (x, y). */
+    public Type get(int x, int y) {
+        return TYPES[cells[y * width + x]];
+    }
+
+    /** @return Where creature <code>id</code> is. */
+    public int x(int id) {
+        return x[id];
+    }
+
+    /** @return Where creature <code>id</code> is. */
+    public int y(int id) {
+        return y[id];
+    }
+
+    public boolean alive(int id) {
+        return alive[id];
+    }
+
+    /** @param player 1 for this player, 2 for the other. */
+    public int score(int player) {
+        return score[player - 1];
+    }
+
+    /** @return Number of squares with something a sheep can eat. */
+    public int food() {
+        return food;
+    }
+
+    /** @return The turn being played, from 0 up to
+        {@link Simulator#TURNS}. */
+    public int turn() {
+        return turn;
+    }
+
+    /** @return 0 while the game is on, otherwise the winner (1 for this
+        player, 2 for the other) or -1 for a draw. */
+    public int winner() {
+        return winner;
+    }
+
+    public boolean over() {
+        return winner != 0;
+    }
+
+    /**
+     * @return A Zobrist hash of the state: the board, the scores, and who
+     *         moves next in which turn (and in simultaneous play, the
+     *         moves chosen so far this round). States with the same hash
+     *         are the same, barring the odd collision, however they were
+     *         reached. Keeping it up to date costs a few XORs a move.
+     * @see TranspositionTable
+     */
+    public long hash() {
+        long h = board ^ Zobrist.key(turn, step, score[0], score[1]);
+        if (roundEnd != null) {
+            if (first != -1)
+                h ^= Zobrist.choice(first, -1);
+            for (int c = chosen; c != 0; c &= c - 1) {
+                int id = Integer.numberOfTrailingZeros(c);
+                h ^= Zobrist.choice(id, choice[id]);
+            }
+        }
+        return h;
+    }
+
+    /** @return The creature that makes (or in simultaneous play,
+        chooses) the next move. */
+    public int toMove() {
+        return roundEnd == null ? order[step] : chooser();
+    }
+
+    /** @return The creature that chooses next this round, or -1 if
+        everyone has. */
+    private int chooser() {
+        if (first != -1)
+            return first;
+        int end = roundEnd[step];
+        for (int i = step; i < end; ++i) {
+            int id = order[carriedOut(i)];
+            if (alive[id] && (chosen & 1 << id) == 0)
+                return id;
+        }
+        return -1;
+    }
+
+    /**
+     * @return Where in <code>order</code> the <code>i</code>th move of a
+     *         round is carried out. The queue alternates between the
+     *         players, so swapping neighbours puts player 2 first on odd
+     *         turns, as {@link Simulator} does.
+     */
+    private int carriedOut(int i) {
+        return turn % 2 == 0 ? i : i ^ 1;
+    }
+
+    /** @return Number of moves that can be taken back. */
+    public int depth() {
+        return made;
+    }
+
+    /**
+     * @return <code>true</code> if <code>m</code> takes the creature to
+     *         move somewhere. A move that doesn't is allowed, but does
+     *         nothing at all, not even what {@link Creature.Move#WAIT}
+     *         does.
+     */
+    public boolean legal(Creature.Move m) {
+        int id = toMove();
+        return target(id, y[id] * width + x[id], m) != -1;
+    }
+
+    /**
+     * Lists the moves the creature to move can make: WAIT, and every
+     * {@link #legal} step.
+     *
+     * @param moves Filled with the moves; must have room for all five.
+     * @return How many moves there are.
+     */
+    public int legalMoves(Creature.Move moves[]) {
+        int id = toMove();
+        int from = y[id] * width + x[id];
+        int n = 0;
+        moves[n++] = Creature.Move.WAIT;
+        for (int i = 1; i < MOVES.length; ++i)
+            if (target(id, from, MOVES[i]) != -1)
+                moves[n++] = MOVES[i];
+        return n;
+    }
+
+    /** @return The square <code>m</code> takes creature <code>id</code>
+        to from <code>from</code>, or -1 if it can't go there. */
+    private int target(int id, int from, Creature.Move m) {
+        int to;
+        switch (m) {
+        case RIGHT:
+            if (from % width == width - 1)
+                return -1;
+            to = from + 1;
+            break;
+        case LEFT:
+            if (from % width == 0)
+                return -1;
+            to = from - 1;
+            break;
+        case UP:
+            if (from < width)
+                return -1;
+            to = from - width;
+            break;
+        case DOWN:
+            to = from + width;
+            if (to >= cells.length)
+                return -1;
+            break;
+        default:
+            return from;
+        }
+        return blocks[CREATURE[id] * T + cells[to]] ? -1 : to;
+    }
+
+    /**
+     * Makes the next move of the game, exactly as the simulator would,
+     * and moves on to the next creature. In simultaneous play, chooses
+     * the next creature's move, and carries out the round if that was the
+     * last one.
+     *
+     * @param m The move, or <code>null</code> for WAIT.
+     * @throws IllegalStateException if the game is over.
+     */
+    public void make(Creature.Move m) {
+        if (winner != 0)
+            throw new IllegalStateException("The game is over");
+        if (m == null)
+            m = Creature.Move.WAIT;
+
+        made++;
+        if (roundEnd != null) {
+            choose(m);
+            return;
+        }
+        apply(order[step], m, 0);
+        next();
+    }
+
+    /** Notes the next creature's choice, and carries out the round once
+        everyone in it has chosen. */
+    private void choose(Creature.Move m) {
+        int id = chooser();
+        int d = push();
+        int u[] = undo;
+        u[d] = chosen;
+        u[d + 1] = first;
+        u[d + 2] = id;
+        u[d + 4] = winner;
+        u[d + 5] = turn * 256 + step;
+        u[d + 6] = food;
+
+        chosen |= 1 << id;
+        choice[id] = m.ordinal();
+        first = -1;
+        if (chooser() != -1)
+            return;
+
+        // A sheep eaten earlier in the round doesn't move at all
+        int end = roundEnd[step];
+        for (int i = step; i < end && winner == 0; ++i) {
+            int c = order[carriedOut(i)];
+            if ((chosen & 1 << c) != 0 && alive[c])
+                apply(c, MOVES[choice[c]], CONTINUED);
+        }
+        chosen = 0;
+        next();
+    }
+
+    /** @return Where a new frame starts on the undo stack, which has been
+        grown to take it if need be. */
+    private int push() {
+        if (depth + FRAME > undo.length)
+            undo = Arrays.copyOf(undo, undo.length * 2);
+        int d = depth;
+        depth += FRAME;
+        return d;
+    }
+
+    /** Carries out move <code>m</code> of creature <code>id</code>.
+        <code>flags</code> go with it on the undo stack. */
+    private void apply(int id, Creature.Move m, int flags) {
+        int type = CREATURE[id];
+        int from = y[id] * width + x[id];
+        int to = target(id, from, m);
+
+        int d = push();
+        int u[] = undo;
+        u[d] = from;
+        u[d + 1] = to;
+        u[d + 3] = 0;
+        u[d + 4] = winner;
+        u[d + 5] = turn * 256 + step;
+        u[d + 6] = food;
+
+        if (to == -1) {
+            // Bumping into something does nothing
+            u[d + 2] = id | flags;
+        } else {
+            int fromCell = cells[from];
+            if (to != from) {
+                set(from, Type.EMPTY.ordinal());
+                x[id] = to % width;
+                y[id] = to / width;
+            }
+            int target = cells[to];
+            int i = type * T + target;
+            int player = id & 1;
+            score[player] += points[i];
+            u[d + 3] = points[i];
+
+            int dead = -1;
+            boolean wasAlive = false;
+            if (victim[i] != -1) {
+                dead = victim[i] == Type.SHEEP1.ordinal() ? MY_SHEEP
+                    : THEIR_SHEEP;
+                wasAlive = alive[dead];
+                alive[dead] = false;
+            }
+            u[d + 2] = id | fromCell << 2 | target << 6 | (dead + 1) << 10
+                | (wasAlive ? 1 << 12 : 0) | flags;
+
+            winner = afterMove(winner, alive[MY_SHEEP], alive[THEIR_SHEEP],
+                               score[0], score[1]);
+            set(to, type);
+        }
+
+        if (food == 0)
+            winner = byScore(score[0], score[1]);
+    }
+
+    /** Moves on to the next living creature (in simultaneous play, the
+        next round with anyone alive in it), and to the next turn when
+        everyone has moved. */
+    private void next() {
+        while (winner == 0) {
+            step = roundEnd == null ? step + 1 : roundEnd[step];
+            if (step == order.length) {
+                step = 0;
+                if (++turn == Simulator.TURNS) {
+                    winner = byScore(score[0], score[1]);
+                    break;
+                }
+            }
+            if (roundEnd == null ? alive[order[step]] : chooser() != -1)
+                break;
+        }
+    }
+
+    private void set(int i, int type) {
+        byte old = cells[i];
+        if (old == Type.GRASS.ordinal() || old == Type.RHUBARB.ordinal())
+            food--;
+        if (type == Type.GRASS.ordinal() || type == Type.RHUBARB.ordinal())
+            food++;
+        restore(i, type);
+    }
+
+    /** Sets a square without counting the food. */
+    private void restore(int i, int type) {
+        board ^= Zobrist.key(i, cells[i]) ^ Zobrist.key(i, type);
+        cells[i] = (byte)type;
+    }
+
+    /**
+     * Takes back the last move made.
+     *
+     * @throws IllegalStateException if there's nothing to take back.
+     */
+    public void unmake() {
+        if (made == 0)
+            throw new IllegalStateException("No moves to take back");
+        made--;
+        if (roundEnd == null) {
+            takeBack();
+            return;
+        }
+
+        while ((undo[depth - FRAME + 2] & CONTINUED) != 0)
+            takeBack();
+        depth -= FRAME;
+        int u[] = undo;
+        int d = depth;
+        chosen = u[d];
+        first = u[d + 1];
+        winner = u[d + 4];
+        turn = u[d + 5] / 256;
+        step = u[d + 5] % 256;
+        food = u[d + 6];
+    }
+
+    /** Takes back the move on top of the undo stack. */
+    private void takeBack() {
+        depth -= FRAME;
+        int u[] = undo;
+        int d = depth;
+        int from = u[d];
+        int to = u[d + 1];
+        int packed = u[d + 2];
+        int id = packed & 3;
+
+        winner = u[d + 4];
+        turn = u[d + 5] / 256;
+        step = u[d + 5] % 256;
+        food = u[d + 6];
+        if (to == -1)
+            return;
+
+        score[id & 1] -= u[d + 3];
+        int dead = (packed >> 10 & 3) - 1;
+        if (dead != -1)
+            alive[dead] = (packed & 1 << 12) != 0;
+        restore(to, packed >> 6 & 15);
+        restore(from, packed >> 2 & 15);
+        x[id] = from % width;
+        y[id] = from / width;
+    }
+
+    /**
+     * Decides whether a move that may have killed a sheep has ended the
+     * game. A team that has lost its sheep loses if it's behind, and once
+     * both sheep are dead the score decides.
+     *
+     * @return The winner, as {@link Simulator#getWinner()}.
+     */
+    static int afterMove(int winner, boolean alive1, boolean alive2,
+                         int score1, int score2) {
+        if (!alive1 && winner == 0 && score1 < score2)
+            return 2;
+        if (!alive2 && winner == 0 && score2 < score1)
+            return 1;
+        if (!alive1 && !alive2)
+            return byScore(score1, score2);
+        return winner;
+    }
+
+    /** @return The winner by score, or -1 for a draw. */
+    static int byScore(int score1, int score2) {
+        if (score1 > score2)
+            return 1;
+        if (score1 < score2)
+            return 2;
+        return -1;
+    }
+}
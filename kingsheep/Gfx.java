@@ -2,37 +2,63 @@ package kingsheep;
 
 import java.awt.Container;
 import java.awt.Dimension;
+import java.awt.Toolkit;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
-import javax.swing.ImageIcon;
 
 public class Gfx extends JFrame {
 
-    /** Size of a unit square on the map. */
+    /** Size of a unit square on the map, if the screen is big enough. */
     public static final int UNIT   = 48;
 
-    /** Number of horizontal/vertical squares. */
+    /** Number of horizontal/vertical squares on the classic map.
+        @deprecated Maps can be any size; ask the board. */
+    @Deprecated
     public static final int XUNIT  = 19;
+    /** @deprecated Maps can be any size; ask the board. */
+    @Deprecated
     public static final int YUNIT  = 15;
 
-    /** Pixel width/height of the screen. */
+    /** Pixel width/height of the screen for the classic map.
+        @deprecated The window is sized from the map; see
+        <code>pixelWidth</code> and <code>pixelHeight</code>. */
+    @Deprecated
     public static final int WIDTH  = UNIT * XUNIT;
+    /** @deprecated The window is sized from the map. */
+    @Deprecated
     public static final int HEIGHT = UNIT * YUNIT;
 
+    /** Size of a unit square on the map as shown. */
+    final int unit;
+
+    /** Pixel width/height of the screen. */
+    final int pixelWidth;
+    final int pixelHeight;
+
     protected JPanel gfx;
     private final Container pane;
 
-    Gfx() {
+    /**
+     * @param columns Number of horizontal squares.
+     * @param rows Number of vertical squares.
+     */
+    Gfx(int columns, int rows) {
         super("King Sheep");
 
+        Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+        unit = Math.max(1, Math.min(UNIT,
+                                    Math.min(screen.width / columns,
+                                             screen.height / rows)));
+        pixelWidth = unit * columns;
+        pixelHeight = unit * rows;
+
         pane = this.getContentPane();
         gfx = new JPanel(true);
         pane.add(gfx);
 
-        setIconImage((new ImageIcon("gfx/sheep.png")).getImage());
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        gfx.setSize(WIDTH, HEIGHT);
-        setMinimumSize(new Dimension(WIDTH, HEIGHT));
+        gfx.setSize(pixelWidth, pixelHeight);
+        setMinimumSize(new Dimension(pixelWidth, pixelHeight));
         setLocationRelativeTo(null);
         setResizable(false);
         setUndecorated(true);
@@ -1,10 +1,380 @@
 package kingsheep;
 
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 class KingSheep {
     public static void main(String[] args) {
-        if (args.length != 3)
-            System.err.println("usage: KingSheep map ai1 ai2");
+        boolean headless = false;
+        boolean tournament = false;
+        boolean virtual = false;
+        boolean shared = false;
+        boolean simultaneous = false;
+        int workers = 0;
+        String tune = null;
+        Rules rules = Rules.standard();
+        ThinkBudget budget = ThinkBudget.STANDARD;
+        File record = null;
+        File stats = null;
+        Long seed = null;
+        File replay = null;
+        int seek = 0;
+        double speed = 1;
+
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--"); ++first) {
+            if (args[first].equals("--headless"))
+                headless = true;
+            else if (args[first].equals("--tournament"))
+                tournament = true;
+            else if (args[first].equals("--virtual"))
+                virtual = true;
+            else if (args[first].equals("--shared-teams"))
+                shared = true;
+            else if (args[first].equals("--simultaneous"))
+                simultaneous = true;
+            else if (args[first].equals("--workers")
+                     && first + 1 < args.length) {
+                try {
+                    workers = Integer.parseInt(args[++first]);
+                } catch (NumberFormatException e) {
+                    usage();
+                    return;
+                }
+            }
+            else if (args[first].equals("--tune") && first + 1 < args.length)
+                tune = args[++first];
+            else if (args[first].equals("--rules") && first + 1 < args.length)
+                rules = loadRules(args[++first]);
+            else if (args[first].equals("--budget") && first + 1 < args.length)
+                budget = parseBudget(args[++first]);
+            else if (args[first].equals("--record") && first + 1 < args.length)
+                record = new File(args[++first]);
+            else if (args[first].equals("--seed") && first + 1 < args.length)
+                seed = Long.valueOf(args[++first]);
+            else if (args[first].equals("--stats") && first + 1 < args.length)
+                stats = new File(args[++first]);
+            else if (args[first].equals("--replay") && first + 1 < args.length)
+                replay = new File(args[++first]);
+            else if (args[first].equals("--seek")
+                     && first + 1 < args.length) {
+                try {
+                    seek = Integer.parseInt(args[++first]);
+                } catch (NumberFormatException e) {
+                    usage();
+                    return;
+                }
+            }
+            else if (args[first].equals("--speed")
+                     && first + 1 < args.length) {
+                try {
+                    speed = Double.parseDouble(args[++first]);
+                } catch (NumberFormatException e) {
+                    usage();
+                    return;
+                }
+            }
+            else {
+                usage();
+                return;
+            }
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
+
+        if (replay != null) {
+            replay(replay, headless, seek, ReplayViewer.SPEED * speed);
+            return;
+        }
+
+        if (simultaneous)
+            budget = simultaneousBudget(budget, tournament);
+
+        ThinkScheduler scheduler = null;
+        try {
+            scheduler = virtual ? new VirtualThinkScheduler()
+                : new PooledThinkScheduler();
+        } catch (UnsupportedOperationException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+
+        WorkerPool pool = null;
+        if (workers > 0) {
+            if (tune != null) {
+                System.err.println("Tuning can't use workers");
+                System.exit(1);
+            }
+            try {
+                pool = new WorkerPool(workers);
+                pool.setFreshTeams(!shared);
+            } catch (IOException e) {
+                System.err.println("Could not start workers: "
+                                   + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (tune != null)
+            tune(args, tune, budget, shared, seed, scheduler);
+        else if (tournament)
+            tournament(args, rules, budget, shared, simultaneous, seed,
+                       record, stats, scheduler, pool);
         else
-            new Simulator(args[0], args[1], args[2]);
+            match(args, headless, rules, budget, simultaneous, seed, record,
+                  stats, scheduler, pool, speed);
+
+        scheduler.shutdown();
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    /** Plays a single game. */
+    private static void match(String[] args, boolean headless, Rules rules,
+                              ThinkBudget budget, boolean simultaneous,
+                              Long seed, File record,
+                              File stats, ThinkScheduler scheduler,
+                              WorkerPool pool, double speed) {
+        if (args.length != 3) {
+            usage();
+            return;
+        }
+
+        Simulator sim = null;
+        try {
+            sim = new Simulator(args[0], args[1], args[2],
+                                pool != null ? pool : TeamLoader.SHARED);
+        } catch (ReflectiveOperationException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+
+        sim.setRules(rules);
+        sim.setBudget(budget);
+        sim.setSimultaneous(simultaneous);
+        if (seed != null)
+            sim.setSeed(seed);
+        sim.setThinkScheduler(scheduler);
+        if (record != null)
+            sim.addObserver(new MatchRecorder(record));
+        MatchStats timings = null;
+        if (stats != null) {
+            timings = new MatchStats(0);
+            sim.setStats(timings);
+        }
+        if (!headless) {
+            Board board = sim.getBoard();
+            SwingView view = new SwingView(board.width(), board.height());
+            sim.addObserver(view);
+            sim.setSpeed(speed);
+            view.awaitReady();
+        }
+
+        MatchResult result = sim.run();
+        if (stats != null)
+            writeStats(stats, Collections.singletonList(timings));
+        if (headless)
+            System.out.println(result);
+        else if (result.reason != null)
+            System.out.println(result.reason);
+    }
+
+    /** Plays every team against every other team on the given maps. */
+    private static void tournament(String[] args, Rules rules,
+                                   ThinkBudget budget, boolean shared,
+                                   boolean simultaneous, Long seed,
+                                   File record, File stats,
+                                   ThinkScheduler scheduler,
+                                   WorkerPool pool) {
+        if (args.length < 1) {
+            usage();
+            return;
+        }
+
+        List<String> maps = Arrays.asList(args[0].split(","));
+        List<String> teams = null;
+        try {
+            if (args.length > 1)
+                teams = Arrays.asList(args).subList(1, args.length);
+            else
+                teams = TeamFinder.findTeams();
+        } catch (IOException e) {
+            System.err.println("Could not look for teams: " + e.getMessage());
+            System.exit(1);
+        }
+
+        if (teams.size() < 2) {
+            System.err.println("A tournament needs at least two teams");
+            System.exit(1);
+        }
+
+        try {
+            Tournament t = new Tournament(maps, teams, scheduler);
+            t.setRules(rules);
+            t.setBudget(budget);
+            t.setSharedTeams(shared);
+            t.setSimultaneous(simultaneous);
+            if (pool != null)
+                t.setWorkers(pool);
+            if (seed != null)
+                t.setSeed(seed);
+            System.out.println("Tournament seed " + t.getSeed());
+            if (record != null)
+                t.setRecordDirectory(record);
+            t.setTimed(stats != null);
+            Tournament.print(t.run());
+            if (stats != null)
+                writeStats(stats, t.getStats());
+        } catch (InterruptedException e) {
+            System.err.println("Tournament interrupted");
+        }
+    }
+
+    /** Tunes a team's parameters by playing lots of games. */
+    private static void tune(String[] args, String spec, ThinkBudget budget,
+                             boolean shared, Long seed,
+                             ThinkScheduler scheduler) {
+        if (args.length < 2) {
+            usage();
+            return;
+        }
+
+        List<String> maps = Arrays.asList(args[0].split(","));
+        List<String> opponents = args.length > 2
+            ? Arrays.asList(args).subList(2, args.length)
+            : Collections.singletonList("dumb");
+
+        try {
+            Tuner tuner = new Tuner(maps, args[1], opponents, scheduler);
+            tuner.configure(spec);
+            tuner.setBudget(budget);
+            tuner.setSharedTeams(shared);
+            if (seed != null)
+                tuner.setSeed(seed);
+            System.out.println("Tuning seed " + tuner.getSeed());
+            System.out.println("Best: " + tuner.describe(tuner.run()));
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Could not load team " + args[1] + ": " + e);
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Plays back a recorded game. */
+    private static void replay(File file, boolean headless, int seek,
+                               double speed) {
+        try {
+            Replay replay = Replay.open(file);
+            if (headless)
+                System.out.println(replay.play(replay.newSimulator(), 0));
+            else
+                new ReplayViewer(replay, seek, speed).start();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Saves timings, or complains. */
+    private static void writeStats(File file, List<MatchStats> stats) {
+        try {
+            MatchStats.write(file, stats);
+        } catch (IOException e) {
+            System.err.printf("Could not save timings '%s' - %s%n", file,
+                              e.getMessage());
+        }
+    }
+
+    /**
+     * In simultaneous play all four creatures of a game think at once,
+     * and a tournament plays a game per processor. Creatures without a
+     * processor each take turns on them, so a wall clock budget would
+     * charge each for the others' thinking; the thinkers' CPU time is
+     * counted instead.
+     */
+    private static ThinkBudget simultaneousBudget(ThinkBudget budget,
+                                                  boolean tournament) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int thinkers = 4 * (tournament ? processors : 1);
+        if (budget.clock != ThinkBudget.Clock.WALL || thinkers <= processors)
+            return budget;
+        try {
+            budget = budget.withClock(ThinkBudget.Clock.CPU);
+            System.err.printf("Counting CPU time, as %d creatures think at"
+                              + " once on %d processor%s%n", thinkers,
+                              processors, processors == 1 ? "" : "s");
+        } catch (UnsupportedOperationException e) {
+            System.err.printf("Warning: %d creatures think at once on %d"
+                              + " processor%s, and will be charged for each"
+                              + " other's thinking%n", thinkers, processors,
+                              processors == 1 ? "" : "s");
+        }
+        return budget;
+    }
+
+    /** Reads a think budget, or quits. */
+    private static ThinkBudget parseBudget(String spec) {
+        try {
+            return ThinkBudget.parse(spec);
+        } catch (RuntimeException e) {
+            System.err.printf("Bad budget '%s' - %s%n", spec,
+                              e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /** Reads a rule set from a file, or quits. */
+    private static Rules loadRules(String fileName) {
+        try {
+            return Rules.load(new FileReader(fileName));
+        } catch (IOException e) {
+            System.err.printf("Could not load rules '%s' - %s%n", fileName,
+                              e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: KingSheep [--headless] [--virtual] "
+                           + "[--workers n] [--simultaneous] [--rules file] "
+                           + "[--budget spec] [--seed n] [--record file] "
+                           + "[--stats file] [--speed factor] map ai1 ai2");
+        System.err.println("       KingSheep --tournament [--virtual] "
+                           + "[--workers n] [--simultaneous] [--shared-teams] "
+                           + "[--rules file] [--budget spec] [--seed n] "
+                           + "[--record dir] [--stats file] "
+                           + "map[,map...] [ai...]");
+        System.err.println("       (--simultaneous has the creatures think "
+                           + "at the same time and move in rounds, counting");
+        System.err.println("        CPU time if there aren't enough "
+                           + "processors for them)");
+        System.err.println("       (--workers plays the teams in n or more "
+                           + "separate processes)");
+        System.err.println("       (--shared-teams lets a team keep its "
+                           + "static fields from game to game)");
+        System.err.println("       (tuning settings are like "
+                           + "population=16,generations=10,games=100)");
+        System.err.println("       (a budget is like "
+                           + "cpu,move=1000,match=30000,gc)");
+        System.err.println("       (--stats saves timings as JSON, or CSV "
+                           + "if the file name ends in .csv)");
+        System.err.println("       KingSheep --tune settings [--budget spec] "
+                           + "[--shared-teams] [--seed n] map[,map...] team "
+                           + "[opponent...]");
+        System.err.println("       KingSheep [--headless] [--seek turn] "
+                           + "[--speed factor] --replay file");
+        System.err.println("       (a speed of Infinity shows a game "
+                           + "as fast as it can be played)");
     }
 }
@@ -0,0 +1,95 @@
+package kingsheep;
+
+/**
+ * Counts how long things took, in nanoseconds, in a fixed amount of
+ * memory. Times are sorted into buckets that get wider as the times get
+ * longer, so every bucket is within about 3% of the times in it: below
+ * 64ns each nanosecond has its own bucket, and every doubling above that
+ * is split into 32 buckets.
+ *
+ * Recording is a handful of instructions and never allocates. A histogram
+ * is not thread safe; give each thread its own and {@link #add} them up
+ * afterwards.
+ */
+final class LatencyHistogram {
+
+    /** Sub-buckets per doubling, as a power of two. */
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+
+    /** Longest time told apart from the others, about 18 minutes. Longer
+        times go in the last bucket (but still count for the max). */
+    private static final long LONGEST = (1L << 40) - 1;
+
+    private final long counts[] = new long[index(LONGEST) + 1];
+    private long count;
+    private long total;
+    private long max;
+
+    void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts[index(Math.min(nanos, LONGEST))]++;
+        count++;
+        total += nanos;
+        if (nanos > max)
+            max = nanos;
+    }
+
+    /** Adds everything recorded in <code>o</code> to this one. */
+    void add(LatencyHistogram o) {
+        for (int i = 0; i < counts.length; ++i)
+            counts[i] += o.counts[i];
+        count += o.count;
+        total += o.total;
+        max = Math.max(max, o.max);
+    }
+
+    long count() {
+        return count;
+    }
+
+    long max() {
+        return max;
+    }
+
+    /** @return The average time, or 0 if nothing was recorded. */
+    long mean() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * @param p Percentile, between 0 and 100.
+     * @return A time that at least <code>p</code>% of the times were no
+     *         longer than (the top of the bucket it's in, but never more
+     *         than the max), or 0 if nothing was recorded.
+     */
+    long percentile(double p) {
+        if (count == 0)
+            return 0;
+        long wanted = Math.max(1, (long)Math.ceil(count * p / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= wanted)
+                return Math.min(lowest(i + 1) - 1, max);
+        }
+        return max;
+    }
+
+    /** @return Which bucket a time goes in. */
+    private static int index(long v) {
+        if (v < 2 * SUB)
+            return (int)v;
+        int e = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (e << SUB_BITS) + (int)(v >>> e);
+    }
+
+    /** @return The shortest time that goes in bucket <code>i</code>. */
+    private static long lowest(int i) {
+        if (i < 2 * SUB)
+            return i;
+        int e = (i >>> SUB_BITS) - 1;
+        return (long)((i & (SUB - 1)) + SUB) << e;
+    }
+}
@@ -0,0 +1,188 @@
+package kingsheep;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compiles text maps into a compact binary form that loads without any
+ * parsing. The build compiles the maps in <code>res/</code>, and
+ * {@link MapLoader} picks the compiled ones up by itself.
+ *
+ * A compiled map holds: magic number, version, width, height, the starting
+ * square of each creature, the number of food squares, the board's
+ * {@link Zobrist} hash, and the board at four bits per square (as in
+ * {@link MatchRecorder}). Everything but the board is there to check the
+ * board against when it's read back. The distances around the fences
+ * aren't stored, as they'd take far more room than the map; they're
+ * worked out once when the map is first loaded and kept in its
+ * {@link MapTemplate}.
+ *
+ * <pre>
+ *     java -cp kingsheep.jar kingsheep.MapCompiler [-d dir] file.map...
+ * </pre>
+ */
+final class MapCompiler {
+
+    static final int MAGIC = 0x4b534d50;  // "KSMP"
+    static final int VERSION = 1;
+
+    static final String SOURCE = ".map";
+    static final String COMPILED = ".kmap";
+
+    /** Bytes before the board. */
+    private static final int HEADER = 4 + 1 + 4 + 4 + 4 * 8 + 4 + 8;
+
+    private MapCompiler() {
+    }
+
+    /** @return What <code>name.map</code> is called once compiled. */
+    static String compiledName(String mapName) {
+        String base = mapName.endsWith(SOURCE)
+            ? mapName.substring(0, mapName.length() - SOURCE.length())
+            : mapName;
+        return base + COMPILED;
+    }
+
+    /** Writes a map in the compiled form. */
+    static void write(MapTemplate map, OutputStream out) throws IOException {
+        int size = map.width() * map.height();
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + (size + 1) / 2);
+        buf.putInt(MAGIC);
+        buf.put((byte)VERSION);
+        buf.putInt(map.width());
+        buf.putInt(map.height());
+        for (int id = 0; id < 4; ++id) {
+            buf.putInt(map.spawnX(id));
+            buf.putInt(map.spawnY(id));
+        }
+        buf.putInt(map.food());
+        buf.putLong(map.hash());
+
+        int pending = -1;
+        for (int y = 0; y < map.height(); ++y) {
+            for (int x = 0; x < map.width(); ++x) {
+                int t = map.get(x, y).ordinal();
+                if (pending == -1) {
+                    pending = t;
+                } else {
+                    buf.put((byte)(pending << 4 | t));
+                    pending = -1;
+                }
+            }
+        }
+        if (pending != -1)
+            buf.put((byte)(pending << 4));
+
+        out.write(buf.array(), 0, buf.position());
+    }
+
+    /**
+     * Reads a compiled map, and closes the stream.
+     *
+     * @throws IOException if the map can't be read, or it isn't a compiled
+     *         map, or it has been damaged.
+     */
+    static MapTemplate read(String mapName, InputStream in)
+        throws IOException
+    {
+        ByteBuffer buf;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte chunk[] = new byte[64 * 1024];
+            for (int n; (n = in.read(chunk)) != -1; )
+                bytes.write(chunk, 0, n);
+            buf = ByteBuffer.wrap(bytes.toByteArray());
+        } finally {
+            in.close();
+        }
+
+        try {
+            if (buf.getInt() != MAGIC)
+                throw error(mapName, "Not a compiled map");
+            int version = buf.get();
+            if (version != VERSION)
+                throw error(mapName, "Unsupported compiled map version "
+                            + version);
+
+            int width = buf.getInt();
+            int height = buf.getInt();
+            if (width <= 0 || height <= 0
+                || (long)width * height > MapLoader.MAX_SQUARES)
+                throw error(mapName, "Bad map size " + width + "x" + height);
+            int spawn[] = new int[8];
+            for (int i = 0; i < spawn.length; ++i)
+                spawn[i] = buf.getInt();
+            int food = buf.getInt();
+            long hash = buf.getLong();
+
+            byte cells[] = new byte[width * height];
+            int types = Type.values().length;
+            for (int i = 0; i < cells.length; i += 2) {
+                int b = buf.get() & 0xff;
+                if ((b >>> 4) >= types || (b & 0xf) >= types)
+                    throw error(mapName, "Bad square on the board");
+                cells[i] = (byte)(b >>> 4);
+                if (i + 1 < cells.length)
+                    cells[i + 1] = (byte)(b & 0xf);
+            }
+
+            MapTemplate map = new MapTemplate(mapName, width, height, cells);
+            for (int id = 0; id < 4; ++id)
+                if (map.spawnX(id) != spawn[2 * id]
+                    || map.spawnY(id) != spawn[2 * id + 1])
+                    throw error(mapName, "Damaged: the creatures aren't "
+                                + "where the header says");
+            if (map.food() != food || map.hash() != hash)
+                throw error(mapName, "Damaged: the board doesn't match "
+                            + "the header");
+            return map;
+        } catch (BufferUnderflowException e) {
+            throw error(mapName, "The compiled map is cut short");
+        }
+    }
+
+    private static IOException error(String mapName, String message) {
+        return new IOException(mapName + ": " + message);
+    }
+
+    public static void main(String args[]) {
+        File dir = null;
+        int first = 0;
+        if (args.length >= 2 && args[0].equals("-d")) {
+            dir = new File(args[1]);
+            first = 2;
+        }
+        if (first == args.length) {
+            System.err.println("Usage: MapCompiler [-d dir] file.map...");
+            System.exit(1);
+        }
+
+        for (int i = first; i < args.length; ++i) {
+            File source = new File(args[i]);
+            File target = new File(dir != null ? dir
+                                   : source.getAbsoluteFile().getParentFile(),
+                                   compiledName(source.getName()));
+            try {
+                MapTemplate map = MapLoader.parse(args[i],
+                                                  new FileInputStream(source));
+                OutputStream out = new FileOutputStream(target);
+                try {
+                    write(map, out);
+                } finally {
+                    out.close();
+                }
+                System.out.println("Compiled " + source + " to " + target);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+}
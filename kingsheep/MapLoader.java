@@ -1,62 +1,243 @@
 package kingsheep;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.InputStreamReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 
+/**
+ * Reads maps. A map is one line of text per row, one character per square
+ * (see {@link Type}), and can be any size up to {@link #MAX_SQUARES}.
+ *
+ * The size is normally worked out from the rows themselves. Big maps can
+ * start with a header line <code>size &lt;width&gt; &lt;height&gt;</code>
+ * so the board can be set up before the rows are read.
+ */
 class MapLoader {
 
-    public static Type[][] loadMap(String mapName, Player[] p) {
+    /** How many characters to read from the file at a time. */
+    private static final int CHUNK = 64 * 1024;
+
+    /** The most squares a map may have, say 4096x4096. A board takes a
+        few dozen bytes a square, and more for the creatures' distances,
+        so much more wouldn't fit in a usual heap anyway. */
+    static final int MAX_SQUARES = 1 << 24;
 
-        Type[][] map = new Type[Gfx.YUNIT][Gfx.XUNIT];
-        BufferedReader in = null;
+    private static final String HEADER = "size ";
 
+    /**
+     * Puts the creatures on their starting squares of a map, and gives
+     * back a board of their own to play on. The map is only read the
+     * first time; after that this is a copy of the board kept in its
+     * {@link MapTemplate}.
+     *
+     * @throws IOException if the map can't be read or isn't valid.
+     */
+    public static Board loadMap(String mapName, Player[] p)
+        throws IOException
+    {
+        return MapTemplate.get(mapName).newBoard(p);
+    }
+
+    /**
+     * Reads a map from the class path, or failing that, from the file
+     * system. A map called <code>name.kmap</code> is in the binary form
+     * written by {@link MapCompiler}. For a text map <code>name.map</code>
+     * on the class path, a compiled <code>name.kmap</code> next to it is
+     * read instead.
+     *
+     * @throws IOException if the map can't be read or isn't valid.
+     */
+    static MapTemplate read(String mapName) throws IOException {
+        ClassLoader loader = MapLoader.class.getClassLoader();
+        if (mapName.endsWith(MapCompiler.SOURCE)) {
+            InputStream in = loader.getResourceAsStream
+                (MapCompiler.compiledName(mapName));
+            if (in != null)
+                return MapCompiler.read(mapName, in);
+        }
+
+        InputStream in = loader.getResourceAsStream(mapName);
+        if (in == null) {
+            if (!new File(mapName).isFile())
+                throw new FileNotFoundException("Could not open map file '"
+                                                + mapName + "'");
+            in = new FileInputStream(mapName);
+        }
+        if (mapName.endsWith(MapCompiler.COMPILED))
+            return MapCompiler.read(mapName, in);
+        return parse(mapName, in);
+    }
+
+    /**
+     * Reads a map in the text form, and closes the stream.
+     *
+     * @throws IOException if the map can't be read or isn't valid.
+     */
+    static MapTemplate parse(String mapName, InputStream in)
+        throws IOException
+    {
+        Reader reader = new InputStreamReader(in, "US-ASCII");
         try {
-            in = new BufferedReader(new InputStreamReader(MapLoader
-                                                          .class
-                                                          .getClassLoader()
-                                                          .getResourceAsStream
-                                                          (mapName)));
-        } catch (NullPointerException e) {
-            System.err.printf("Could not open map file '%s'\n", mapName);
-            System.exit(1);
-        }
-
-        int next = -1;
-        for (int y = 0; y < Gfx.YUNIT; ++y) {
-            for (int x = 0; x < Gfx.XUNIT; ++x) {
-                try {
-                    next = in.read();
-                    if (next == 10)
-                        next = in.read();  // Skip line break
-                } catch (IOException ioe) {
-                    System.err.println(ioe.getMessage());
-                }
+            return new MapLoader(mapName).parse(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private final String mapName;
+
+    /** The squares read so far, as type ordinals, row after row. */
+    private byte cells[] = new byte[CHUNK];
+    private int size = 0;
+
+    private int width = -1;
+    private int height = -1;
+    private int rows = 0;
+
+    /** Which line of the file we're on, for error messages. */
+    private int lineNo = 1;
 
-                if (next == -1)
-                    break;
-
-                map[y][x] = Type.getType((char)next);
-
-                if (map[y][x] == Type.SHEEP1) {
-                    p[0].sheep.x = x;
-                    p[0].sheep.y = y;
-                } else if (map[y][x] == Type.SHEEP2) {
-                    p[1].sheep.x = x;
-                    p[1].sheep.y = y;
-                } else if (map[y][x] == Type.WOLF1) {
-                    p[0].wolf.x = x;
-                    p[0].wolf.y = y;
-                } else if (map[y][x] == Type.WOLF2) {
-                    p[1].wolf.x = x;
-                    p[1].wolf.y = y;
+    /** Whether a blank line has been seen since the last row. */
+    private boolean gap = false;
+
+    private MapLoader(String mapName) {
+        this.mapName = mapName;
+    }
+
+    private MapTemplate parse(Reader in) throws IOException {
+        char buf[] = new char[CHUNK];
+        char line[] = new char[256];
+        int length = 0;
+
+        for (int n; (n = in.read(buf)) != -1; ) {
+            for (int i = 0; i < n; ++i) {
+                char ch = buf[i];
+                if (ch == '\n') {
+                    line(line, length);
+                    length = 0;
+                } else if (ch != '\r') {
+                    if (length == line.length) {
+                        if (length >= MAX_SQUARES)
+                            throw error("The line is longer than a map"
+                                        + " may be wide");
+                        char bigger[] = new char[line.length * 2];
+                        System.arraycopy(line, 0, bigger, 0, length);
+                        line = bigger;
+                    }
+                    line[length++] = ch;
                 }
             }
         }
+        if (length > 0)
+            line(line, length);
+
+        if (rows == 0)
+            throw error("The map is empty");
+        if (height != -1 && rows != height)
+            throw error("The header says " + height + " rows, but there are "
+                        + rows);
+
+        return new MapTemplate(mapName, width, rows, cells);
+    }
+
+    /** Takes care of one line of the file. */
+    private void line(char line[], int length) throws IOException {
+        if (length == 0) {
+            // Blank lines are only allowed after the map
+            gap = rows > 0;
+        } else if (rows == 0 && height == -1
+                   && startsWith(line, length, HEADER)) {
+            header(new String(line, 0, length));
+        } else {
+            if (gap)
+                throw error("Blank line in the middle of the map");
+            row(line, length);
+        }
+        ++lineNo;
+    }
+
+    private void header(String line) throws IOException {
+        String parts[] = line.trim().split("\\s+");
+        try {
+            if (parts.length != 3)
+                throw new NumberFormatException();
+            width = Integer.parseInt(parts[1]);
+            height = Integer.parseInt(parts[2]);
+        } catch (NumberFormatException e) {
+            throw error("Expected 'size <width> <height>'");
+        }
+        if (width <= 0 || height <= 0)
+            throw error("The map must be at least 1x1");
+        if ((long)width * height > MAX_SQUARES)
+            throw error("The map is " + width + "x" + height
+                        + ", more than the " + MAX_SQUARES
+                        + " squares allowed");
+
+        // Only a start, since the rows may never come; it grows as they do
+        cells = new byte[Math.min(width * height, CHUNK * 16)];
+    }
+
+    private void row(char line[], int length) throws IOException {
+        if (width == -1)
+            width = length;
+        else if (length != width)
+            throw error("Row is " + length + " squares wide, expected "
+                        + width);
+        if (height != -1 && rows == height)
+            throw error("More than the " + height + " rows in the header");
+
+        if (size + length > MAX_SQUARES)
+            throw error("The map has more than the " + MAX_SQUARES
+                        + " squares allowed");
+
+        if (size + length > cells.length) {
+            int most = height != -1 ? width * height : MAX_SQUARES;
+            byte bigger[] = new byte[Math.min(Math.max(cells.length * 2,
+                                                       size + length),
+                                              most)];
+            System.arraycopy(cells, 0, bigger, 0, size);
+            cells = bigger;
+        }
+
+        for (int x = 0; x < length; ++x) {
+            Type t = Type.getType(line[x]);
+            if (t == null)
+                throw new IOException(String.format
+                                      ("%s:%d:%d: Unknown square '%c'",
+                                       mapName, lineNo, x + 1, line[x]));
+            cells[size++] = (byte)t.ordinal();
+        }
+        ++rows;
+    }
+
+    /**
+     * Sets up a board that isn't kept as a template, and puts the
+     * creatures on it.
+     *
+     * @param cells Type ordinals, row after row.
+     * @throws IOException if there isn't exactly one of each creature.
+     */
+    static Board build(String mapName, int width, int rows, byte cells[],
+                       Player[] p)
+        throws IOException
+    {
+        return new MapTemplate(mapName, width, rows, cells).newBoard(p);
+    }
+
+    private static boolean startsWith(char line[], int length, String s) {
+        if (length < s.length())
+            return false;
+        for (int i = 0; i < s.length(); ++i)
+            if (line[i] != s.charAt(i))
+                return false;
+        return true;
+    }
 
-        return map;
+    private IOException error(String message) {
+        return new IOException(mapName + ":" + lineNo + ": " + message);
     }
-}
\ No newline at end of file
+}
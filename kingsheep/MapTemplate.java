@@ -0,0 +1,137 @@
+package kingsheep;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A map as loaded, before anyone has moved on it: the board, where the
+ * creatures start and the distances around the fences. A template never
+ * changes, so one template serves every game on its map, and starting a
+ * game only takes a copy of the board.
+ *
+ * Maps are loaded once, by name, and kept for the life of the program.
+ */
+final class MapTemplate {
+
+    /** Templates by map name, loaded once. */
+    private static final Map<String, MapTemplate> templates =
+        new ConcurrentHashMap<String, MapTemplate>();
+
+    private static final Type CREATURES[] = {
+        Type.SHEEP1, Type.SHEEP2, Type.WOLF1, Type.WOLF2
+    };
+
+    final String name;
+
+    /** The board. Only ever copied, never changed or handed out. */
+    private final Board board;
+
+    /** Where the creatures start, by {@link Simulator#creatureID}. */
+    private final int spawnX[] = new int[4];
+    private final int spawnY[] = new int[4];
+
+    /**
+     * @return The template of a map, loading it the first time.
+     * @throws IOException if the map can't be read or isn't valid.
+     * @see MapLoader#read(String)
+     */
+    static MapTemplate get(String mapName) throws IOException {
+        MapTemplate t = templates.get(mapName);
+        if (t == null) {
+            // Two threads may both load it, which is harmless
+            t = MapLoader.read(mapName);
+            MapTemplate old = templates.putIfAbsent(mapName, t);
+            if (old != null)
+                t = old;
+        }
+        return t;
+    }
+
+    /**
+     * Sets up a map and works out the distances around its fences.
+     *
+     * @param cells Type ordinals, row after row.
+     * @throws IOException if there isn't exactly one of each creature.
+     */
+    MapTemplate(String name, int width, int height, byte cells[])
+        throws IOException
+    {
+        this.name = name;
+        board = new Board(width, height);
+        Type types[] = Type.values();
+        int found[] = new int[types.length];
+
+        for (int i = 0, y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x, ++i) {
+                Type t = types[cells[i]];
+                found[t.ordinal()]++;
+                if (t != Type.EMPTY)
+                    board.set(x, y, t);
+
+                for (int id = 0; id < 4; ++id)
+                    if (t == CREATURES[id]) {
+                        spawnX[id] = x;
+                        spawnY[id] = y;
+                    }
+            }
+        }
+
+        for (Type t : CREATURES)
+            if (found[t.ordinal()] != 1)
+                throw new IOException(String.format
+                                      ("%s: There must be exactly one %s "
+                                       + "('%c'), found %d", name, t,
+                                       t.c, found[t.ordinal()]));
+
+        // Fences are all in place, so the distances around them can be
+        // worked out before the game starts rather than during a move
+        board.distances();
+    }
+
+    /** @return A board to play a game on, with the creatures put on
+        their starting squares. */
+    Board newBoard(Player p[]) {
+        for (int id = 0; id < 4; ++id) {
+            Player player = p[id & 1];
+            Creature c = id < 2 ? player.sheep : player.wolf;
+            c.x = spawnX[id];
+            c.y = spawnY[id];
+        }
+        return new Board(board);
+    }
+
+    int width() {
+        return board.width();
+    }
+
+    int height() {
+        return board.height();
+    }
+
+    Type get(int x, int y) {
+        return board.get(x, y);
+    }
+
+    /** @return Where creature <code>id</code> starts, as
+        {@link Simulator#creatureID}. */
+    int spawnX(int id) {
+        return spawnX[id];
+    }
+
+    int spawnY(int id) {
+        return spawnY[id];
+    }
+
+    int food() {
+        return board.food();
+    }
+
+    int count(Type t) {
+        return board.count(t);
+    }
+
+    long hash() {
+        return board.hash(1);
+    }
+}
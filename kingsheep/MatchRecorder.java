@@ -0,0 +1,289 @@
+package kingsheep;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records a game to a compact binary file that {@link Replay} can play
+ * back without the teams' code.
+ *
+ * The file starts with a header: magic number, version, map name, team
+ * names, the rules (unless standard), the seed, the board size and the
+ * starting board at four bits per square. Then follows one event per
+ * creature turn, and an end marker with the final result:
+ *
+ * <pre>
+ *     000c cmmm  creature c made move m, then the think time
+ *     010c cfff  creature c committed foul f, then the think time
+ *     1000 0000  on to the next turn
+ *     1100 0000  keyframe: the whole game state at this point
+ *     1111 1111  end: winner, score 1, score 2, turns
+ * </pre>
+ *
+ * The top two bits tell the events apart ({@link #MOVE}, {@link #FOUL},
+ * {@link #TURN}, {@link #KEYFRAME}); bit 5 is always 0 in moves and fouls,
+ * the creature (as {@link Simulator#creatureID}) is in bits 4 and 3, and
+ * the move or foul ordinal in bits 2 to 0.
+ *
+ * Think times are in microseconds and, like the other numbers after the
+ * header, written as unsigned LEB128 varints, so a typical move takes two
+ * or three bytes.
+ *
+ * Every {@link #KEYFRAMES} turns a keyframe is written at the start of the
+ * turn: the board, scores, creature positions, turn and move number. After
+ * the end marker comes an index of the keyframes (number of keyframes,
+ * then turn, move number and file offset of each), and last of all the
+ * offset of the index followed by the magic number again. A replay can
+ * then jump to any point by restoring the keyframe before it and playing
+ * at most {@link #KEYFRAMES} turns of moves.
+ */
+class MatchRecorder implements GameObserver {
+
+    static final int MAGIC = 0x4b535250;  // "KSRP"
+    static final int VERSION = 3;
+
+    static final int MOVE = 0x00;
+    static final int FOUL = 0x40;
+    static final int TURN = 0x80;
+    static final int KEYFRAME = 0xc0;
+    static final int END = 0xff;
+
+    /** Number of turns between keyframes. */
+    static final int KEYFRAMES = 10;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Size of the write buffer. */
+    private static final int BUFFER = 64 * 1024;
+
+    private final File file;
+    private FileChannel channel;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+
+    /** Bytes handed to the channel so far. */
+    private long written;
+
+    /** The turn the last event belonged to. */
+    private int turn;
+
+    /** Number of moves and fouls so far. */
+    private int step;
+
+    /** Turn, move number and offset of each keyframe. */
+    private final List<long[]> keyframes = new ArrayList<long[]>();
+
+    /** Set when writing has failed, to stop trying. */
+    private boolean failed;
+
+    MatchRecorder(File file) {
+        this.file = file;
+    }
+
+    public void gameStarted(Simulator sim) {
+        try {
+            channel = FileChannel.open(file.toPath(),
+                                       StandardOpenOption.CREATE,
+                                       StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+            buf.clear();
+            written = 0;
+            turn = 0;
+            step = 0;
+            keyframes.clear();
+
+            buf.putInt(MAGIC);
+            buf.put((byte)VERSION);
+            putString(sim.getMapName());
+            putString(sim.getTeam(0));
+            putString(sim.getTeam(1));
+
+            Rules rules = sim.getRules();
+            if (rules == Rules.standard()) {
+                buf.put((byte)0);
+            } else {
+                buf.put((byte)1);
+                putString(rules.text());
+            }
+            buf.putLong(sim.getSeed());
+
+            putBoard(sim.getBoard());
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public void turnStarted(Simulator sim, Creature c) {
+        if (failed || sim.getTurn() == turn)
+            return;
+        try {
+            for (; turn < sim.getTurn(); ++turn) {
+                room(1);
+                buf.put((byte)TURN);
+            }
+            if (turn % KEYFRAMES == 0)
+                putKeyframe(sim);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public void moved(Simulator sim, Creature c, Creature.Move move,
+                      long thinkTime) {
+        event(MOVE | sim.creatureID(c) << 3 | move.ordinal(), thinkTime);
+    }
+
+    public void disqualified(Simulator sim, Creature c, Simulator.Foul foul,
+                             long thinkTime) {
+        event(FOUL | sim.creatureID(c) << 3 | foul.ordinal(), thinkTime);
+    }
+
+    public void gameOver(Simulator sim, MatchResult result) {
+        if (failed)
+            return;
+        try {
+            room(32);
+            buf.put((byte)END);
+            buf.put((byte)result.winner);
+            putVarint(result.score1);
+            putVarint(result.score2);
+            putVarint(result.turns);
+
+            long index = position();
+            room(4);
+            buf.putInt(keyframes.size());
+            for (long k[] : keyframes) {
+                room(16);
+                buf.putInt((int)k[0]);
+                buf.putInt((int)k[1]);
+                buf.putLong(k[2]);
+            }
+            room(12);
+            buf.putLong(index);
+            buf.putInt(MAGIC);
+            flush();
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void event(int code, long thinkTime) {
+        if (failed)
+            return;
+        try {
+            room(16);
+            buf.put((byte)code);
+            putVarint(thinkTime / 1000);
+            ++step;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** Writes everything needed to pick up the game from here. */
+    private void putKeyframe(Simulator sim) throws IOException {
+        keyframes.add(new long[] { turn, step, position() });
+
+        room(1);
+        buf.put((byte)KEYFRAME);
+        putCells(sim.getBoard());
+
+        room(64);
+        putVarint(sim.getPlayer(0).score);
+        putVarint(sim.getPlayer(1).score);
+        for (int id = 0; id < 4; ++id) {
+            Creature c = sim.creature(id);
+            putVarint(c.x);
+            putVarint(c.y);
+            buf.put((byte)(c.alive ? 1 : 0));
+        }
+        putVarint(turn);
+        putVarint(step);
+    }
+
+    /** Writes the board size and the board. */
+    private void putBoard(Board map) throws IOException {
+        room(8);
+        buf.putInt(map.width());
+        buf.putInt(map.height());
+        putCells(map);
+    }
+
+    /** Writes the board at four bits per square. */
+    private void putCells(Board map) throws IOException {
+        int pending = -1;
+        for (int y = 0; y < map.height(); ++y) {
+            for (int x = 0; x < map.width(); ++x) {
+                int t = map.get(x, y).ordinal();
+                if (pending == -1) {
+                    pending = t;
+                } else {
+                    room(1);
+                    buf.put((byte)(pending << 4 | t));
+                    pending = -1;
+                }
+            }
+        }
+        if (pending != -1) {
+            room(1);
+            buf.put((byte)(pending << 4));
+        }
+    }
+
+    private void putString(String s) throws IOException {
+        byte bytes[] = s.getBytes(UTF8);
+        room(5);
+        putVarint(bytes.length);
+        for (int off = 0; off < bytes.length; ) {
+            room(1);
+            int n = Math.min(buf.remaining(), bytes.length - off);
+            buf.put(bytes, off, n);
+            off += n;
+        }
+    }
+
+    private void putVarint(long v) {
+        while ((v & ~0x7fL) != 0) {
+            buf.put((byte)(v & 0x7f | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte)v);
+    }
+
+    /** Makes sure there are at least <code>n</code> bytes free in the
+        buffer. */
+    private void room(int n) throws IOException {
+        if (buf.remaining() < n)
+            flush();
+    }
+
+    private void flush() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            written += channel.write(buf);
+        buf.clear();
+    }
+
+    /** @return The file offset the next byte will be written at. */
+    private long position() {
+        return written + buf.position();
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        System.err.printf("Could not record game to '%s' - %s%n", file,
+                          e.getMessage());
+        try {
+            if (channel != null)
+                channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package kingsheep;
+
+/**
+ * The outcome of one game, as returned by {@link Simulator#run()}.
+ */
+class MatchResult {
+
+    final String mapName;
+    final String team1;
+    final String team2;
+
+    /** 1 or 2 for the winning player, -1 for a draw. */
+    final int winner;
+
+    final int score1;
+    final int score2;
+
+    /** Number of turns played. */
+    final int turns;
+
+    /** Why the game ended early, or <code>null</code> if it didn't. */
+    final String reason;
+
+    /** The seed the creatures' random numbers came from. */
+    final long seed;
+
+    MatchResult(String mapName, String team1, String team2, int winner,
+                int score1, int score2, int turns, String reason,
+                long seed) {
+        this.mapName = mapName;
+        this.team1 = team1;
+        this.team2 = team2;
+        this.winner = winner;
+        this.score1 = score1;
+        this.score2 = score2;
+        this.turns = turns;
+        this.reason = reason;
+        this.seed = seed;
+    }
+
+    /** Name of the winning team, or <code>null</code> on a draw. */
+    String winningTeam() {
+        if (winner == 1)
+            return team1;
+        else if (winner == 2)
+            return team2;
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        String s = String.format("%s: %s %d - %d %s (%s after %d turns, "
+                                 + "seed %d)", mapName, team1, score1,
+                                 score2, team2, winner == -1 ? "draw"
+                                 : "player " + winner + " won", turns,
+                                 seed);
+        if (reason != null)
+            s += " - " + reason;
+        return s;
+    }
+}
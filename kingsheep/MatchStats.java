@@ -0,0 +1,253 @@
+package kingsheep;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timings for one game: how long each creature thought, and where the
+ * engine spent its own time. Add it with {@link Simulator#setStats} (which
+ * makes it an observer too).
+ *
+ * {@link #write} saves the timings for one or more games as JSON, or as
+ * CSV if the file name ends in <code>.csv</code>. Times are in
+ * nanoseconds.
+ */
+class MatchStats implements GameObserver {
+
+    /** The parts of the engine that are timed. */
+    enum Phase {
+        /** Telling the observers (recording, drawing) about a turn. */
+        OBSERVERS,
+        /** Carrying out a move. */
+        ACTION,
+        /** Looking for a winner after a move. */
+        CHECKMAP,
+        /** Copying the map's board for the game, once at the start. */
+        COPY
+    }
+
+    private static final String CREATURES[] = { "sheep", "sheep", "wolf",
+                                                "wolf" };
+
+    /** Which match in a tournament this is. */
+    final int number;
+
+    /** Thinking times, by {@link Simulator#creatureID(Creature)}. */
+    private final LatencyHistogram think[] = new LatencyHistogram[4];
+    private final int timeouts[] = new int[4];
+
+    private final LatencyHistogram engine[] =
+        new LatencyHistogram[Phase.values().length];
+
+    private MatchResult result;
+    private ThinkBudget budget;
+
+    MatchStats(int number) {
+        this.number = number;
+        for (int i = 0; i < think.length; ++i)
+            think[i] = new LatencyHistogram();
+        for (int i = 0; i < engine.length; ++i)
+            engine[i] = new LatencyHistogram();
+    }
+
+    /** Notes time spent by the engine itself. */
+    void engine(Phase phase, long nanos) {
+        engine[phase.ordinal()].record(nanos);
+    }
+
+    public void gameStarted(Simulator sim) {
+        budget = sim.getBudget();
+    }
+
+    public void turnStarted(Simulator sim, Creature c) {
+    }
+
+    public void moved(Simulator sim, Creature c, Creature.Move move,
+                      long thinkTime) {
+        think[sim.creatureID(c)].record(thinkTime);
+    }
+
+    public void disqualified(Simulator sim, Creature c, Simulator.Foul foul,
+                             long thinkTime) {
+        int id = sim.creatureID(c);
+        think[id].record(thinkTime);
+        if (foul != Simulator.Foul.CHEATED)
+            timeouts[id]++;
+    }
+
+    public void gameOver(Simulator sim, MatchResult result) {
+        this.result = result;
+    }
+
+    /** One row of output: a name and the times that go with it. */
+    private static class Row {
+        final String match;
+        final String subject;
+        final LatencyHistogram times;
+        int timeouts;
+
+        Row(String match, String subject, LatencyHistogram times) {
+            this.match = match;
+            this.subject = subject;
+            this.times = times;
+        }
+    }
+
+    /** @return A row per creature and per engine phase for this game. */
+    private List<Row> rows() {
+        String match = String.valueOf(number);
+        List<Row> rows = new ArrayList<Row>();
+        for (int id = 0; id < think.length; ++id) {
+            Row r = new Row(match, team(id) + "/" + CREATURES[id]
+                            + (id % 2 + 1), think[id]);
+            r.timeouts = timeouts[id];
+            rows.add(r);
+        }
+        for (Phase phase : Phase.values())
+            rows.add(new Row(match, "engine/" + phase.name().toLowerCase(),
+                             engine[phase.ordinal()]));
+        return rows;
+    }
+
+    /** @return Name of the team playing creature <code>id</code>. */
+    private String team(int id) {
+        return id % 2 == 0 ? result.team1 : result.team2;
+    }
+
+    /**
+     * @return A row per team (all its creatures' thinking in all games)
+     *         and per engine phase, over all the games.
+     */
+    private static List<Row> totals(List<MatchStats> matches) {
+        Map<String, Row> rows = new LinkedHashMap<String, Row>();
+        for (MatchStats m : matches) {
+            for (int id = 0; id < m.think.length; ++id)
+                total(rows, m.team(id), m.think[id]).timeouts
+                    += m.timeouts[id];
+            for (Phase phase : Phase.values())
+                total(rows, "engine/" + phase.name().toLowerCase(),
+                      m.engine[phase.ordinal()]);
+        }
+        return new ArrayList<Row>(rows.values());
+    }
+
+    private static Row total(Map<String, Row> rows, String subject,
+                             LatencyHistogram times) {
+        Row r = rows.get(subject);
+        if (r == null) {
+            r = new Row("all", subject, new LatencyHistogram());
+            rows.put(subject, r);
+        }
+        r.times.add(times);
+        return r;
+    }
+
+    /**
+     * Saves the timings of finished games, along with totals for every
+     * team and engine phase over all of them.
+     */
+    static void write(File file, List<MatchStats> matches)
+        throws IOException
+    {
+        List<MatchStats> done = new ArrayList<MatchStats>();
+        for (MatchStats m : matches)
+            if (m != null && m.result != null)
+                done.add(m);
+
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            if (file.getName().endsWith(".csv"))
+                writeCsv(out, done);
+            else
+                writeJson(out, done);
+        } finally {
+            out.close();
+        }
+        if (out.checkError())
+            throw new IOException("Could not write " + file);
+    }
+
+    private static void writeCsv(PrintWriter out, List<MatchStats> matches) {
+        out.println("match,subject,count,timeouts,mean_ns,p50_ns,p99_ns,"
+                    + "max_ns");
+        List<Row> rows = totals(matches);
+        for (MatchStats m : matches)
+            rows.addAll(m.rows());
+        for (Row r : rows)
+            out.printf("%s,%s,%d,%d,%d,%d,%d,%d%n", r.match,
+                       csv(r.subject), r.times.count(), r.timeouts,
+                       r.times.mean(), r.times.percentile(50),
+                       r.times.percentile(99), r.times.max());
+    }
+
+    private static void writeJson(PrintWriter out,
+                                  List<MatchStats> matches) {
+        out.println("{");
+        out.print("  \"totals\": ");
+        writeJson(out, totals(matches), "  ");
+        out.println(",");
+        out.println("  \"matches\": [");
+        for (int i = 0; i < matches.size(); ++i) {
+            MatchStats m = matches.get(i);
+            MatchResult r = m.result;
+            out.println("    {");
+            out.printf("      \"match\": %d, \"map\": %s, \"team1\": %s, "
+                       + "\"team2\": %s,%n", m.number, json(r.mapName),
+                       json(r.team1), json(r.team2));
+            out.printf("      \"winner\": %d, \"score1\": %d, "
+                       + "\"score2\": %d, \"turns\": %d,%n", r.winner,
+                       r.score1, r.score2, r.turns);
+            out.printf("      \"seed\": %d, \"budget\": %s, "
+                       + "\"limit_ns\": %d,%n", r.seed,
+                       json(m.budget.toString()), m.budget.move);
+            out.print("      \"timings\": ");
+            writeJson(out, m.rows(), "      ");
+            out.println();
+            out.println(i + 1 < matches.size() ? "    }," : "    }");
+        }
+        out.println("  ]");
+        out.println("}");
+    }
+
+    private static void writeJson(PrintWriter out, List<Row> rows,
+                                  String indent) {
+        out.println("[");
+        for (int i = 0; i < rows.size(); ++i) {
+            Row r = rows.get(i);
+            out.printf("%s  {\"subject\": %s, \"count\": %d, "
+                       + "\"timeouts\": %d, \"mean_ns\": %d, "
+                       + "\"p50_ns\": %d, \"p99_ns\": %d, \"max_ns\": %d}%s%n",
+                       indent, json(r.subject), r.times.count(), r.timeouts,
+                       r.times.mean(), r.times.percentile(50),
+                       r.times.percentile(99), r.times.max(),
+                       i + 1 < rows.size() ? "," : "");
+        }
+        out.print(indent + "]");
+    }
+
+    private static String json(String s) {
+        StringBuilder b = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); ++i) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\')
+                b.append('\\').append(ch);
+            else if (ch < ' ')
+                b.append(String.format("\\u%04x", (int)ch));
+            else
+                b.append(ch);
+        }
+        return b.append('"').toString();
+    }
+
+    private static String csv(String s) {
+        if (s.indexOf(',') == -1 && s.indexOf('"') == -1)
+            return s;
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+}
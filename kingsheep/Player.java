@@ -1,18 +1,19 @@
 package kingsheep;
 
-import java.awt.Color;
-
 class Player {
 
     int score;
     final Creature sheep;
     final Creature wolf;
-    final Color color;
 
-    Player(Creature sheep, Creature wolf, Color color) {
+    /** Follows the game on the team's behalf, if need be (like the link
+        to a team playing in another process). Set before the game is
+        made. */
+    GameObserver observer;
+
+    Player(Creature sheep, Creature wolf) {
         this.score = 0;
         this.sheep = sheep;
         this.wolf = wolf;
-        this.color = color;
     }
 }
\ No newline at end of file
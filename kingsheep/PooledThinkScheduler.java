@@ -0,0 +1,63 @@
+package kingsheep;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs think tasks on a pool of reusable daemon threads. Idle threads are
+ * kept for a while. A thread stuck in an abandoned task is simply replaced
+ * by a fresh one, and when the task finally returns, the thread ends
+ * rather than going back to the pool.
+ */
+class PooledThinkScheduler extends ExecutorThinkScheduler {
+
+    /** How long an idle thinker thread is kept around. */
+    private static final long KEEPALIVE = 60;
+
+    /** Thrown to end a thread that ran an abandoned thinker. */
+    private static final class Retired extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /** Lets retired threads end without a fuss. */
+    private static final Thread.UncaughtExceptionHandler RETIRE_QUIETLY =
+        new Thread.UncaughtExceptionHandler() {
+            public void uncaughtException(Thread t, Throwable e) {
+                if (!(e instanceof Retired))
+                    e.printStackTrace();
+            }
+        };
+
+    PooledThinkScheduler() {
+        super(new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                                     KEEPALIVE, TimeUnit.SECONDS,
+                                     new SynchronousQueue<Runnable>(),
+                                     new ThreadFactory() {
+                                         private final AtomicInteger count =
+                                             new AtomicInteger();
+                                         public Thread newThread(Runnable r) {
+                                             Thread t = new Thread
+                                                 (r, "thinker-"
+                                                  + count.incrementAndGet());
+                                             t.setDaemon(true);
+                                             // Not the priority of a
+                                             // retiring thread making
+                                             // its own replacement
+                                             t.setPriority
+                                                 (Thread.NORM_PRIORITY);
+                                             t.setUncaughtExceptionHandler
+                                                 (RETIRE_QUIETLY);
+                                             return t;
+                                         }
+                                     }) {
+                protected void afterExecute(Runnable r, Throwable t) {
+                    // Throwing from here ends the pool's thread
+                    if (retiring())
+                        throw new Retired();
+                }
+            });
+    }
+}
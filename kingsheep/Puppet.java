@@ -0,0 +1,23 @@
+package kingsheep;
+
+/**
+ * A creature with no mind of its own, moved by whoever holds the strings
+ * (like a replay).
+ */
+class Puppet extends Creature {
+
+    Puppet(Type type, int playerID) {
+        super(type, playerID, -1, -1);
+    }
+
+    protected void think(BoardView board) {
+    }
+
+    /** @return A player made of puppets. */
+    static Player player(int playerID) {
+        return new Player(new Puppet(playerID == 1 ? Type.SHEEP1
+                                     : Type.SHEEP2, playerID),
+                          new Puppet(playerID == 1 ? Type.WOLF1
+                                     : Type.WOLF2, playerID));
+    }
+}
@@ -0,0 +1,297 @@
+package kingsheep;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A team playing one game in a {@link Worker}. The game sees the team as
+ * two {@link Proxy} creatures, which ask the worker what to do, and the
+ * team follows the game as an observer, which keeps the worker up to date.
+ *
+ * The worker is told the whole board when the game starts. After that,
+ * the moves made since the team last thought are sent along with the
+ * next request to think.
+ *
+ * Both creatures may be waiting on the worker at once (in simultaneous
+ * play). It answers each as it's done, and whichever proxy is waiting
+ * reads the answers off the socket and hands them to whoever they're for.
+ *
+ * If the game ends while the team is still thinking (it ran out of time),
+ * or the worker stops making sense, the worker is killed rather than
+ * handed on to another game.
+ */
+final class RemoteTeam implements GameObserver {
+
+    private final WorkerPool pool;
+    private final WorkerPool.Connection link;
+    private final int playerID;
+
+    /** Moves not yet sent, as creature &lt;&lt; 4 | move. */
+    private final ByteArrayOutputStream moves = new ByteArrayOutputStream();
+
+    private Simulator sim;
+
+    /** Requests to think the worker hasn't answered yet. */
+    private int pending;
+
+    /** Set while a proxy is reading the worker's next answer. */
+    private boolean reading;
+
+    /** Answers read but not yet picked up, by creature. */
+    private final Reply replies[] = new Reply[4];
+
+    /** Set once the worker can't be trusted with another game. */
+    private boolean broken;
+
+    /** Set once the game is over, after which nothing is sent. */
+    private boolean over;
+
+    RemoteTeam(WorkerPool pool, WorkerPool.Connection link, int playerID) {
+        this.pool = pool;
+        this.link = link;
+        this.playerID = playerID;
+    }
+
+    /** Sends the board as it is now. */
+    public synchronized void gameStarted(Simulator sim) {
+        this.sim = sim;
+        Board map = sim.getBoard();
+        Rules rules = sim.getRules();
+        DataOutputStream out = link.out;
+        try {
+            out.writeByte(Worker.GAME);
+            out.writeUTF(sim.getMapName());
+            out.writeUTF(sim.getTeam(0));
+            out.writeUTF(sim.getTeam(1));
+            out.writeUTF(rules == Rules.standard() ? "" : rules.text());
+            out.writeBoolean(sim.isSimultaneous());
+            out.writeLong(sim.getSeed());
+            out.writeInt(map.width());
+            out.writeInt(map.height());
+
+            int pending = -1;
+            for (int y = 0; y < map.height(); ++y) {
+                for (int x = 0; x < map.width(); ++x) {
+                    int t = map.get(x, y).ordinal();
+                    if (pending == -1) {
+                        pending = t;
+                    } else {
+                        out.writeByte(pending << 4 | t);
+                        pending = -1;
+                    }
+                }
+            }
+            if (pending != -1)
+                out.writeByte(pending << 4);
+
+            out.writeInt(sim.getPlayer(0).score);
+            out.writeInt(sim.getPlayer(1).score);
+            for (int id = 0; id < 4; ++id) {
+                Creature c = sim.creature(id);
+                out.writeInt(c.x);
+                out.writeInt(c.y);
+                out.writeBoolean(c.alive);
+            }
+            out.writeInt(sim.getTurn());
+            out.writeInt(sim.getStep());
+            // Flushed with the first request to think
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public void turnStarted(Simulator sim, Creature c) {
+    }
+
+    public synchronized void moved(Simulator sim, Creature c,
+                                   Creature.Move move, long thinkTime) {
+        moves.write(sim.creatureID(c) << 4 | move.ordinal());
+    }
+
+    public void disqualified(Simulator sim, Creature c, Simulator.Foul foul,
+                             long thinkTime) {
+    }
+
+    /** Hands the worker back to the pool, or kills it if it's still
+        thinking. */
+    public synchronized void gameOver(Simulator sim, MatchResult result) {
+        over = true;
+        if (pending > 0 || broken) {
+            pool.discard(link);
+            return;
+        }
+        try {
+            link.out.writeByte(Worker.END);
+            link.out.flush();
+            pool.release(link);
+        } catch (IOException e) {
+            pool.discard(link);
+        }
+    }
+
+    /** Hands the worker back to the pool without having played. It has
+        only loaded the team, which the next game will load again. */
+    synchronized void cancel() {
+        if (over)
+            return;
+        over = true;
+        if (broken)
+            pool.discard(link);
+        else
+            pool.release(link);
+    }
+
+    /**
+     * Asks the worker what <code>c</code> should do, and plans it. Called
+     * on the thinker's thread, which is charged for the CPU time the
+     * worker used. A creature that tried to move itself in the worker is
+     * moved off the board here, so that the game notices.
+     */
+    private void think(Proxy c) {
+        int id;
+        synchronized (this) {
+            if (over || broken)
+                return;
+            id = sim.creatureID(c);
+            try {
+                DataOutputStream out = link.out;
+                out.writeByte(Worker.THINK);
+                out.writeByte(id);
+                out.writeInt(sim.getTurn());
+                out.writeInt(sim.getStep());
+                out.writeInt(moves.size());
+                moves.writeTo(out);
+                out.writeLong(sim.getBoard().hash(1));
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            moves.reset();
+            ++pending;
+        }
+
+        Reply r;
+        try {
+            r = await(id);
+        } catch (InterruptedException e) {
+            return;  // Abandoned; the game has given up on it
+        }
+        if (r == null)
+            return;
+        ThinkBudget.charge(r.cpu);
+        if (r.cheated)
+            c.x = -1;
+        else
+            c.move = r.move == Worker.NO_MOVE ? null
+                : Creature.Move.values()[r.move];
+    }
+
+    /**
+     * Waits for the worker's answer for creature <code>id</code>, reading
+     * answers for both creatures until it turns up if no one else is.
+     *
+     * @return The answer, or <code>null</code> if the worker failed.
+     */
+    private Reply await(int id) throws InterruptedException {
+        while (true) {
+            synchronized (this) {
+                while (replies[id] == null && reading && !broken)
+                    wait();
+                Reply r = replies[id];
+                if (r != null) {
+                    replies[id] = null;
+                    return r;
+                }
+                if (broken)
+                    return null;
+                reading = true;
+            }
+            try {
+                read();
+            } finally {
+                synchronized (this) {
+                    reading = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /** Reads one answer from the worker. Not holding the lock, so the
+        game can end while we wait. */
+    private void read() {
+        DataInputStream in = link.in;
+        try {
+            int reply = in.readByte();
+            int id;
+            int move = Worker.NO_MOVE;
+            long cpu;
+            switch (reply) {
+            case Worker.MOVE:
+                id = in.readByte();
+                move = in.readUnsignedByte();
+                cpu = in.readLong();
+                if (move != Worker.NO_MOVE
+                    && move >= Creature.Move.values().length)
+                    throw new IOException("Unknown move");
+                break;
+            case Worker.CHEATED:
+                id = in.readByte();
+                cpu = in.readLong();
+                break;
+            case Worker.ERROR:
+                throw new IOException(in.readUTF());
+            default:
+                throw new IOException("Unknown reply " + reply);
+            }
+            synchronized (this) {
+                if (id < 0 || id >= replies.length || replies[id] != null)
+                    throw new IOException("Unexpected answer for creature "
+                                          + id);
+                replies[id] = new Reply(reply == Worker.CHEATED, move, cpu);
+                --pending;
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** Gives up on the worker. The team just stops planning. */
+    private synchronized void fail(IOException e) {
+        if (!broken && !over)
+            System.err.println("Worker for player " + playerID
+                               + " failed: " + e.getMessage());
+        broken = true;
+        notifyAll();
+    }
+
+    /** The worker's answer for one creature. */
+    private static final class Reply {
+        final boolean cheated;
+        final int move;
+        final long cpu;
+
+        Reply(boolean cheated, int move, long cpu) {
+            this.cheated = cheated;
+            this.move = move;
+            this.cpu = cpu;
+        }
+    }
+
+    /** Stands in for one of the team's creatures in the game. */
+    static final class Proxy extends Creature {
+        private final RemoteTeam team;
+
+        Proxy(RemoteTeam team, Type type, int playerID) {
+            super(type, playerID, -1, -1);
+            this.team = team;
+        }
+
+        protected void think(BoardView board) {
+            team.think(this);
+        }
+    }
+}
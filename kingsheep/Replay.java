@@ -0,0 +1,448 @@
+package kingsheep;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A game recorded by {@link MatchRecorder}, played back through a
+ * {@link Simulator} full of {@link Puppet}s, so the board, scores and
+ * observers behave exactly as they did in the real game.
+ *
+ * Besides playing straight through, a {@link Seeker} can jump to any move
+ * by way of the keyframes in the recording.
+ */
+class Replay {
+
+    final String mapName;
+    final String team1;
+    final String team2;
+    final Rules rules;
+
+    /** The game's seed, or 0 for recordings made before seeds were
+        kept. */
+    final long seed;
+
+    final int width;
+    final int height;
+
+    /** The starting board, as type ordinals row after row. */
+    private final byte cells[];
+
+    /** The whole file. */
+    private final ByteBuffer data;
+
+    /** Where the events start. */
+    private final int eventsStart;
+
+    /** Turn, move number and file offset of each keyframe, in order. */
+    private final int keyTurn[];
+    private final int keyStep[];
+    private final int keyOffset[];
+
+    /** The move number each turn starts at. */
+    private final int turnStart[];
+
+    /** Number of moves and fouls in the game. */
+    private final int steps;
+
+    private final File file;
+
+    private Replay(File file, ByteBuffer in) throws IOException {
+        this.file = file;
+        this.data = in;
+        if (in.getInt() != MatchRecorder.MAGIC)
+            throw error("Not a King Sheep recording");
+        int version = in.get();
+        if (version < 1 || version > MatchRecorder.VERSION)
+            throw error("Unsupported recording version " + version);
+
+        mapName = getString(in);
+        team1 = getString(in);
+        team2 = getString(in);
+        rules = in.get() == 0 ? Rules.standard()
+            : Rules.load(new StringReader(getString(in)));
+        seed = version >= 3 ? in.getLong() : 0;
+
+        width = in.getInt();
+        height = in.getInt();
+        if (width <= 0 || height <= 0)
+            throw error("Bad board size " + width + "x" + height);
+
+        cells = new byte[width * height];
+        getCells(in, cells);
+        eventsStart = in.position();
+
+        // The keyframe index, if there is one
+        int limit = in.limit();
+        if (version >= 2 && limit >= 12
+            && in.getInt(limit - 4) == MatchRecorder.MAGIC) {
+            ByteBuffer index = in.duplicate();
+            index.position((int)in.getLong(limit - 12));
+            int n = index.getInt();
+            keyTurn = new int[n];
+            keyStep = new int[n];
+            keyOffset = new int[n];
+            for (int i = 0; i < n; ++i) {
+                keyTurn[i] = index.getInt();
+                keyStep[i] = index.getInt();
+                keyOffset[i] = (int)index.getLong();
+            }
+        } else {
+            keyTurn = keyStep = keyOffset = new int[0];
+        }
+
+        // One pass over the events to find where each turn starts
+        List<Integer> starts = new ArrayList<Integer>();
+        starts.add(0);
+        ByteBuffer events = in.duplicate();
+        int n = 0;
+        for (int code; (code = events.get() & 0xff) != MatchRecorder.END; ) {
+            if (code == MatchRecorder.TURN) {
+                starts.add(n);
+            } else if (code == MatchRecorder.KEYFRAME) {
+                skipKeyframe(events);
+            } else {
+                getVarint(events);
+                ++n;
+            }
+        }
+        steps = n;
+        turnStart = new int[starts.size()];
+        for (int i = 0; i < turnStart.length; ++i)
+            turnStart[i] = starts.get(i);
+    }
+
+    /**
+     * Opens a recording.
+     *
+     * @throws IOException if it can't be read or isn't a recording.
+     */
+    static Replay open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ);
+        try {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                        channel.size());
+            return new Replay(file, in);
+        } catch (BufferUnderflowException e) {
+            throw new IOException(file + ": Recording is cut short");
+        } finally {
+            channel.close();
+        }
+    }
+
+    /** @return Number of moves (and fouls) in the game. */
+    int steps() {
+        return steps;
+    }
+
+    /** @return Number of turns that were started. */
+    int turns() {
+        return turnStart.length;
+    }
+
+    /** @return The number of the first move of <code>turn</code>. */
+    int stepOfTurn(int turn) {
+        if (turn >= turnStart.length)
+            return steps;
+        return turnStart[Math.max(0, turn)];
+    }
+
+    /**
+     * @return A simulator with the board as it was at the start of the
+     *         game, ready to be handed to {@link #play} or a
+     *         {@link Seeker}.
+     */
+    Simulator newSimulator() throws IOException {
+        Player p[] = { Puppet.player(1), Puppet.player(2) };
+        Board map = MapLoader.build(mapName, width, height, cells, p);
+        Simulator sim = new Simulator(mapName, team1, team2, p, map);
+        sim.setRules(rules);
+        sim.setSeed(seed);
+        return sim;
+    }
+
+    /**
+     * Plays the whole recording.
+     *
+     * @param sim A simulator from {@link #newSimulator()}.
+     * @param delay Milliseconds to wait after each move, so humans can
+     *        follow along. 0 plays at full speed.
+     * @return The outcome, which should be the same as the recorded one.
+     * @throws IOException if the recording is damaged.
+     */
+    MatchResult play(Simulator sim, int delay) throws IOException {
+        Seeker seeker = new Seeker(sim);
+
+        sim.replayStart();
+        while (seeker.advance()) {
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    delay = 0;  // Hurry up and finish
+                }
+            }
+        }
+
+        return seeker.result;
+    }
+
+    /**
+     * Moves a simulator back and forth through the recording. Jumping
+     * anywhere costs at most the moves between two keyframes, however
+     * long the game is.
+     */
+    class Seeker {
+
+        private final Simulator sim;
+
+        /** Where the next event is. */
+        private final ByteBuffer in = data.duplicate();
+
+        /** Number of moves carried out on the simulator. */
+        private int step;
+
+        /** The result, once the end has been reached. */
+        private MatchResult result;
+
+        /** Scratch space for restoring keyframes. */
+        private final byte keyCells[] = new byte[cells.length];
+        private final int score[] = new int[2];
+        private final int x[] = new int[4];
+        private final int y[] = new int[4];
+        private final boolean alive[] = new boolean[4];
+
+        /**
+         * @param sim A simulator from {@link #newSimulator()}, still at the
+         *        start of the game.
+         */
+        Seeker(Simulator sim) {
+            this.sim = sim;
+            in.position(eventsStart);
+        }
+
+        /** @return Number of moves carried out so far. */
+        int step() {
+            return step;
+        }
+
+        /** @return <code>true</code> if the game is over. */
+        boolean finished() {
+            return result != null;
+        }
+
+        /**
+         * Sets the game to how it was just before move <code>target</code>
+         * (or at the end of the game, if <code>target</code> is past the
+         * last move).
+         *
+         * @throws IOException if the recording is damaged.
+         */
+        void seek(int target) throws IOException {
+            target = Math.max(0, Math.min(target, steps + 1));
+
+            // Find the last keyframe at or before the target
+            int k = -1;
+            for (int i = 0; i < keyStep.length && keyStep[i] <= target; ++i)
+                k = i;
+            int keyframeStep = k == -1 ? 0 : keyStep[k];
+
+            if (target < step || result != null || keyframeStep > step)
+                restore(k);
+
+            while (step < target && advance())
+                ;
+            if (target > steps)
+                advance();
+            else
+                settle();
+        }
+
+        /** Jumps to the start of <code>turn</code>. */
+        void seekTurn(int turn) throws IOException {
+            seek(stepOfTurn(turn));
+        }
+
+        /**
+         * Carries out the next move.
+         *
+         * @return <code>false</code> if the game had already ended, or
+         *         ended now.
+         * @throws IOException if the recording is damaged.
+         */
+        boolean advance() throws IOException {
+            if (result != null)
+                return false;
+
+            try {
+                while (true) {
+                    int code = in.get() & 0xff;
+                    if (code == MatchRecorder.END) {
+                        finish();
+                        return false;
+                    } else if (code == MatchRecorder.TURN) {
+                        sim.replayTurn();
+                    } else if (code == MatchRecorder.KEYFRAME) {
+                        skipKeyframe(in);
+                    } else {
+                        apply(code);
+                        ++step;
+                        return true;
+                    }
+                }
+            } catch (BufferUnderflowException e) {
+                throw error("Recording is cut short");
+            }
+        }
+
+        /** Moves past turn changes and keyframes up to the next move. */
+        private void settle() throws IOException {
+            while (result == null) {
+                int code = in.get(in.position()) & 0xff;
+                if (code == MatchRecorder.TURN) {
+                    in.get();
+                    sim.replayTurn();
+                } else if (code == MatchRecorder.KEYFRAME) {
+                    in.get();
+                    skipKeyframe(in);
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void apply(int code) throws IOException {
+            Creature c = sim.creature(code >>> 3 & 3);
+            long thinkTime = getVarint(in) * 1000;
+            int what = code & 7;
+
+            if ((code & MatchRecorder.FOUL) != 0) {
+                Simulator.Foul fouls[] = Simulator.Foul.values();
+                if (what >= fouls.length)
+                    throw error("Bad foul " + what);
+                sim.replayFoul(c, fouls[what], thinkTime);
+            } else {
+                Creature.Move moves[] = Creature.Move.values();
+                if (what >= moves.length)
+                    throw error("Bad move " + what);
+                sim.replayMove(c, moves[what], thinkTime);
+            }
+        }
+
+        private void finish() {
+            result = sim.replayFinish();
+            int winner = in.get();
+            if (winner != result.winner || getVarint(in) != result.score1
+                || getVarint(in) != result.score2
+                || getVarint(in) != result.turns)
+                System.err.println(file + ": Replay doesn't end like the "
+                                   + "recorded game did");
+        }
+
+        /** Puts the game back to keyframe <code>k</code>, or to the start
+            if <code>k</code> is -1. */
+        private void restore(int k) throws IOException {
+            result = null;
+            if (k == -1) {
+                System.arraycopy(cells, 0, keyCells, 0, cells.length);
+                score[0] = score[1] = 0;
+                for (int i = 0; i < cells.length; ++i) {
+                    int id = creatureAt(cells[i]);
+                    if (id != -1) {
+                        x[id] = i % width;
+                        y[id] = i / width;
+                        alive[id] = true;
+                    }
+                }
+                sim.replayRestore(keyCells, score, x, y, alive, 0);
+                in.position(eventsStart);
+                step = 0;
+                return;
+            }
+
+            in.position(keyOffset[k]);
+            if ((in.get() & 0xff) != MatchRecorder.KEYFRAME)
+                throw error("Keyframe index points at nothing");
+            getCells(in, keyCells);
+            score[0] = (int)getVarint(in);
+            score[1] = (int)getVarint(in);
+            for (int id = 0; id < 4; ++id) {
+                x[id] = (int)getVarint(in);
+                y[id] = (int)getVarint(in);
+                alive[id] = in.get() != 0;
+            }
+            int turn = (int)getVarint(in);
+            step = (int)getVarint(in);
+            sim.replayRestore(keyCells, score, x, y, alive, turn);
+        }
+    }
+
+    /** @return The creature number (see
+        {@link Simulator#creatureID(Creature)}) for a type ordinal, or -1 if
+        it isn't a creature. */
+    private static int creatureAt(int ordinal) {
+        if (ordinal == Type.SHEEP1.ordinal())
+            return 0;
+        if (ordinal == Type.SHEEP2.ordinal())
+            return 1;
+        if (ordinal == Type.WOLF1.ordinal())
+            return 2;
+        if (ordinal == Type.WOLF2.ordinal())
+            return 3;
+        return -1;
+    }
+
+    /** Reads a board written at four bits per square. */
+    private void getCells(ByteBuffer in, byte dst[]) throws IOException {
+        int types = Type.values().length;
+        for (int i = 0; i < dst.length; i += 2) {
+            int b = in.get() & 0xff;
+            dst[i] = (byte)(b >>> 4);
+            if (i + 1 < dst.length)
+                dst[i + 1] = (byte)(b & 0xf);
+            if ((b >>> 4) >= types || (b & 0xf) >= types)
+                throw error("Bad square on the board");
+        }
+    }
+
+    private void skipKeyframe(ByteBuffer in) {
+        in.position(in.position() + (cells.length + 1) / 2);
+        getVarint(in);
+        getVarint(in);
+        for (int id = 0; id < 4; ++id) {
+            getVarint(in);
+            getVarint(in);
+            in.get();
+        }
+        getVarint(in);
+        getVarint(in);
+    }
+
+    private static String getString(ByteBuffer in) throws IOException {
+        byte bytes[] = new byte[(int)getVarint(in)];
+        in.get(bytes);
+        return new String(bytes, MatchRecorder.UTF8);
+    }
+
+    private static long getVarint(ByteBuffer in) {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.get();
+            v |= (long)(b & 0x7f) << shift;
+            if (b >= 0)
+                return v;
+        }
+    }
+
+    private IOException error(String message) {
+        return new IOException(file + ": " + message);
+    }
+}
@@ -0,0 +1,156 @@
+package kingsheep;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Shows a recorded game in a window, with controls to pause, fast-forward,
+ * rewind and jump around:
+ *
+ * <pre>
+ *     Space        pause / continue
+ *     Right        play forwards, faster each press
+ *     Left         play backwards, faster each press
+ *     Page Down/Up jump ten turns forwards/backwards
+ *     Home/End     jump to the start/end
+ *     Escape       quit
+ * </pre>
+ *
+ * The game is moved along on the event dispatch thread, driven by a timer,
+ * and handed to the view's own render loop as snapshots.
+ */
+class ReplayViewer implements ActionListener {
+
+    /** Normal playing speed, in moves per second. */
+    static final double SPEED = 1000.0 / Simulator.WAITMIN;
+
+    private final Replay replay;
+    private final Simulator sim;
+    private final Replay.Seeker seeker;
+    private final SwingView view;
+    private final Timer timer;
+
+    /** Moves per second; negative plays backwards. */
+    private double speed;
+    private boolean paused;
+
+    /** Where we are, in (fractional) moves. */
+    private double position;
+    private long lastTick;
+
+    /**
+     * @param replay The game to show.
+     * @param turn Turn to start at.
+     * @param speed Moves per second; negative plays backwards.
+     */
+    ReplayViewer(Replay replay, int turn, double speed) throws IOException {
+        this.replay = replay;
+        this.speed = speed;
+        sim = replay.newSimulator();
+        seeker = replay.new Seeker(sim);
+        seeker.seekTurn(turn);
+        position = seeker.step();
+
+        view = new SwingView(replay.width, replay.height);
+        view.addKeyListener(new KeyAdapter() {
+                public void keyPressed(KeyEvent e) {
+                    key(e.getKeyCode());
+                }
+            });
+        timer = new Timer(1000 / SwingView.FPS, this);
+    }
+
+    /** Starts showing the game. */
+    void start() {
+        view.awaitReady();
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    lastTick = System.nanoTime();
+                    show();
+                    timer.start();
+                }
+            });
+    }
+
+    public void actionPerformed(ActionEvent e) {
+        long now = System.nanoTime();
+        double dt = (now - lastTick) / 1e9;
+        lastTick = now;
+
+        if (paused)
+            return;
+        position += speed * dt;
+        if (position < 0 || position > replay.steps() + 1) {
+            position = Math.max(0, Math.min(position, replay.steps() + 1));
+            paused = true;
+        }
+        moveTo((int)position);
+    }
+
+    private void key(int code) {
+        switch (code) {
+        case KeyEvent.VK_SPACE:
+            paused = !paused;
+            break;
+        case KeyEvent.VK_RIGHT:
+            speed = speed > 0 ? speed * 2 : SPEED;
+            paused = false;
+            break;
+        case KeyEvent.VK_LEFT:
+            speed = speed < 0 ? speed * 2 : -SPEED;
+            paused = false;
+            break;
+        case KeyEvent.VK_PAGE_DOWN:
+            jump(replay.stepOfTurn(sim.getTurn() + 10));
+            break;
+        case KeyEvent.VK_PAGE_UP:
+            jump(replay.stepOfTurn(sim.getTurn() - 10));
+            break;
+        case KeyEvent.VK_HOME:
+            jump(0);
+            break;
+        case KeyEvent.VK_END:
+            jump(replay.steps() + 1);
+            break;
+        case KeyEvent.VK_ESCAPE:
+            System.exit(0);
+            break;
+        default:
+            return;
+        }
+        show();
+    }
+
+    private void jump(int step) {
+        position = step;
+        moveTo(step);
+    }
+
+    private void moveTo(int step) {
+        if (step == seeker.step() && !seeker.finished())
+            return;
+        if (step > replay.steps() && seeker.finished())
+            return;
+
+        try {
+            seeker.seek(step);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            timer.stop();
+            return;
+        }
+        show();
+    }
+
+    private void show() {
+        String status = String.format("Replay %s %.0fx", paused ? "||"
+                                      : speed < 0 ? "<<" : ">>",
+                                      Math.abs(speed) / SPEED);
+        view.publish(Snapshot.of(sim, null, status));
+    }
+}
@@ -0,0 +1,143 @@
+package kingsheep;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * What happens when a creature steps onto a square, as lookup tables
+ * indexed by the ordinals of the mover's type and the target's type.
+ *
+ * The tables are built from a small text format; see
+ * <code>res/rules.txt</code> for the standard game.
+ */
+class Rules {
+
+    /** The resource holding the standard rules. */
+    private static final String STANDARD = "rules.txt";
+
+    private static Rules standard;
+
+    private static final int TYPES = Type.values().length;
+
+    private final boolean blocked[][] = new boolean[TYPES][TYPES];
+    private final int score[][] = new int[TYPES][TYPES];
+    private final Type victim[][] = new Type[TYPES][TYPES];
+
+    /** The rules as they were written. */
+    private final StringBuilder text = new StringBuilder();
+
+    private Rules() {
+    }
+
+    /** @return The rules of the standard game. */
+    static synchronized Rules standard() {
+        if (standard == null) {
+            InputStream in = Rules.class.getClassLoader()
+                .getResourceAsStream(STANDARD);
+            if (in == null)
+                throw new IllegalStateException("Missing " + STANDARD);
+            try {
+                standard = load(new InputStreamReader(in, "UTF-8"));
+            } catch (IOException e) {
+                throw new IllegalStateException("Broken " + STANDARD, e);
+            }
+        }
+        return standard;
+    }
+
+    /**
+     * Reads a rule set.
+     *
+     * @throws IOException if it can't be read or doesn't make sense.
+     */
+    static Rules load(Reader source) throws IOException {
+        Rules r = new Rules();
+        BufferedReader in = new BufferedReader(source);
+        try {
+            String line;
+            for (int lineNo = 1; (line = in.readLine()) != null; ++lineNo) {
+                r.text.append(line).append('\n');
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                try {
+                    r.parse(line.split("\\s+"));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Line " + lineNo + ": "
+                                          + e.getMessage());
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return r;
+    }
+
+    private void parse(String rule[]) {
+        String what = rule[0];
+        int args = what.equals("block") ? 3 : 4;
+        if (rule.length != args)
+            throw new IllegalArgumentException("'" + what + "' takes "
+                                               + (args - 1) + " arguments");
+
+        Type target = type(rule[2]);
+        for (Type mover : movers(rule[1])) {
+            int m = mover.ordinal();
+            int t = target.ordinal();
+            if (what.equals("block")) {
+                blocked[m][t] = true;
+            } else if (what.equals("eat")) {
+                score[m][t] = Integer.parseInt(rule[3]);
+            } else if (what.equals("kill")) {
+                Type v = type(rule[3]);
+                if (v != Type.SHEEP1 && v != Type.SHEEP2)
+                    throw new IllegalArgumentException("Only sheep can be "
+                                                       + "killed, not " + v);
+                victim[m][t] = v;
+            } else {
+                throw new IllegalArgumentException("Unknown rule '" + what
+                                                   + "'");
+            }
+        }
+    }
+
+    private static Type[] movers(String name) {
+        if (name.equals("*"))
+            return Type.values();
+        return new Type[] { type(name) };
+    }
+
+    private static Type type(String name) {
+        try {
+            return Type.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown type '" + name + "'");
+        }
+    }
+
+    /** @return The rules in the format {@link #load(Reader)} reads. */
+    String text() {
+        return text.toString();
+    }
+
+    /** @return <code>true</code> if <code>mover</code> can't step onto
+        <code>target</code>. */
+    boolean blocks(Type mover, Type target) {
+        return blocked[mover.ordinal()][target.ordinal()];
+    }
+
+    /** @return Points scored by the mover's team for stepping onto
+        <code>target</code>. */
+    int score(Type mover, Type target) {
+        return score[mover.ordinal()][target.ordinal()];
+    }
+
+    /** @return The sheep that dies when <code>mover</code> steps onto
+        <code>target</code>, or <code>null</code>. */
+    Type victim(Type mover, Type target) {
+        return victim[mover.ordinal()][target.ordinal()];
+    }
+}
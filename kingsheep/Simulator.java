@@ -1,28 +1,37 @@
 package kingsheep;
 
-import java.lang.reflect.InvocationTargetException;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
-import java.awt.Graphics;
-import java.awt.image.BufferStrategy;
-import java.awt.Color;
-import java.awt.Font;
-import javax.swing.ImageIcon;
-import javax.swing.SwingUtilities;
-
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The game engine. It owns the map, the turn queue and the game rules, and
+ * knows nothing about graphics; a display can follow the game by
+ * registering a {@link GameObserver}.
+ */
 public class Simulator {
 
-    /** Font size used for the top-window text. */
-    private static final int FONTSIZE = 14;
-
     /** Maximum number of seconds a player is allowed to think. */
-    private static final int THINKLIMIT = 1000;
+    static final int THINKLIMIT = 1000;
 
     /** Minimum time to wait between player turns (even if a player used
-        less time to think). */
-    private static final int WAITMIN = 30;
+        less time to think) when the game is paced for viewing. */
+    static final int WAITMIN = 30;
 
     /** Number of turns for one game. */
-    private static final int TURNS = 100;
+    static final int TURNS = 100;
+
+    /** In simultaneous play, round <code>r</code> of a turn is the
+        creatures from <code>ROUNDS[r]</code> up to
+        <code>ROUNDS[r + 1]</code> in the turn queue: first both sheep,
+        then everyone. */
+    static final int ROUNDS[] = { 0, 2, 6 };
+
+    /** Cross-checks the running counts against the board after every
+        move. Enable with <code>-Dkingsheep.debug=true</code>. */
+    private static final boolean DEBUG = Boolean.getBoolean("kingsheep.debug");
 
     /** 0 if the winner is undecided.
         1 if player 1 has won the game.
@@ -30,11 +39,17 @@ public class Simulator {
         -1 if it's a draw. */
     private int playerWon = 0;
 
+    /** Why the game ended early (disqualifications). */
+    private String reason;
+
     /** The current turn. */
     private int turn;
 
+    /** Where in the turn queue the current turn has got to. */
+    private int step;
+
     /** Holds the map. */
-    private Type map[][];
+    private Board map;
 
     /** The player turn queue. */
     private LinkedList<Creature> turnQueue;
@@ -42,41 +57,113 @@ public class Simulator {
     /** Our player objects goes in here. */
     private Player p[] = new Player[2];
 
-    /** Java stuff for showing neat graphics. */
-    private Gfx gfx;
-    private BufferStrategy strategy;
-    private final Color drawColor;
+    private final String mapName;
+    private final String teams[] = new String[2];
+
+    /** Shortest time a move may take, in nanoseconds, so humans can
+        follow the game. 0 plays as fast as the creatures think. */
+    private long pace;
+
+    /** What happens when creatures move. */
+    private Rules rules = Rules.standard();
+
+    /** Runs the creatures' thinking. */
+    private ThinkScheduler scheduler;
+
+    /** Everyone who wants to know what's going on. */
+    private final List<GameObserver> observers = new ArrayList<GameObserver>();
+
+    /** Where to note how long things take, if anywhere. */
+    private MatchStats stats;
+
+    /** How long creatures may think, and the thinking time each player
+        has been charged this game. */
+    private ThinkBudget budget = ThinkBudget.STANDARD;
+    private ThinkBudget.Meter meter = budget.new Meter();
+    private ThinkBudget.Meter meters[] = meters(budget);
+    private final long spent[] = new long[2];
+
+    /** Whether the creatures of a round think at the same time. */
+    private boolean simultaneous;
 
-    /** All the images we need. */
-    private ImageIcon imgEmpty;
-    private ImageIcon imgSheep1;
-    private ImageIcon imgSheep2;
-    private ImageIcon imgWolf1;
-    private ImageIcon imgWolf2;
-    private ImageIcon imgGrass;
-    private ImageIcon imgRhubarb;
-    private ImageIcon imgSkigard;
+    /** Where the creatures' random numbers come from. */
+    private long seed = new Random().nextLong();
 
-    Simulator(String mapName, String team1, String team2) {
+    /** Ways to get thrown out of a game. */
+    enum Foul {
+        /** Thought for too long. */
+        TIMEOUT("took too long to think"),
+        /** Moved itself instead of planning a move. */
+        CHEATED("has cheated"),
+        /** Used up its team's thinking time for the game. */
+        OVERBUDGET("ran out of thinking time for the game");
 
+        final String description;
+
+        private Foul(String description) {
+            this.description = description;
+        }
+    }
+
+    Simulator(String mapName, String team1, String team2)
+        throws ReflectiveOperationException, IOException
+    {
+        this(mapName, team1, team2, TeamLoader.SHARED);
+    }
+
+    /**
+     * Sets up a game with teams from <code>source</code>. If the game
+     * can't be set up, any team already had is given back.
+     */
+    Simulator(String mapName, String team1, String team2, TeamSource source)
+        throws ReflectiveOperationException, IOException
+    {
+        this.mapName = mapName;
+        Player p[] = new Player[2];
+        boolean done = false;
         try {
-            p[0] = loadTeam(team1, new Color(222, 0, 0), 1);
-            p[1] = loadTeam(team2, new Color(0, 0, 222), 2);
-        } catch (Exception cnfe) {
-            System.out.println(cnfe.getMessage());
-            cnfe.printStackTrace();
-            System.exit(1);
+            p[0] = source.player(team1, 1);
+            p[1] = source.player(team2, 2);
+            setUp(team1, team2, p, MapLoader.loadMap(mapName, p));
+            done = true;
+        } finally {
+            if (!done)
+                for (Player player : p)
+                    if (player != null)
+                        source.release(player);
         }
+    }
 
-        SwingUtilities.invokeLater(new Runnable() {
-                public void run() {
-                    loadImages();
-                    strategy = gfx.getBufferStrategy();
-                }
-            });
-        drawColor = new Color(222, 0, 222);
+    /** Sets up a game for teams that have already been loaded. */
+    Simulator(String mapName, String team1, String team2, Player p[])
+        throws IOException
+    {
+        this(mapName, team1, team2, p, MapLoader.loadMap(mapName, p));
+    }
 
-        map = MapLoader.loadMap(mapName, p);
+    /**
+     * Sets up a game on a board that's already been made. The creatures
+     * must already know where they are on it.
+     */
+    Simulator(String mapName, String team1, String team2, Player p[],
+              Board map) {
+        this.mapName = mapName;
+        setUp(team1, team2, p, map);
+    }
+
+    private void setUp(String team1, String team2, Player p[], Board map) {
+        teams[0] = team1;
+        teams[1] = team2;
+        this.p[0] = p[0];
+        this.p[1] = p[1];
+
+        this.map = map;
+        for (Player player : p) {
+            player.sheep.view = new BoardView(map, player.sheep.playerID,
+                                              this, player.sheep);
+            player.wolf.view = new BoardView(map, player.wolf.playerID,
+                                             this, player.wolf);
+        }
 
         turnQueue = new LinkedList<Creature>();
 
@@ -87,86 +174,428 @@ public class Simulator {
         turnQueue.addFirst(p[1].sheep);
         turnQueue.addFirst(p[0].sheep);
 
+        for (Player player : p)
+            if (player.observer != null)
+                addObserver(player.observer);
+    }
+
+    void addObserver(GameObserver o) {
+        observers.add(o);
+    }
+
+    /** Times the creatures' thinking and the engine's own work. */
+    void setStats(MatchStats stats) {
+        this.stats = stats;
+        addObserver(stats);
+        // The board was copied before anyone could ask for timings
+        if (map.copyTime > 0)
+            stats.engine(MatchStats.Phase.COPY, map.copyTime);
+    }
+
+    /**
+     * Slows the game down for watching. At speed 1, every move takes at
+     * least {@link #WAITMIN} milliseconds; at speed 2 half of that, and so
+     * on. Speed 0 (the default) or infinity doesn't wait at all.
+     */
+    void setSpeed(double speed) {
+        pace = speed > 0 ? (long)(WAITMIN * 1000000L / speed) : 0;
+    }
+
+    /** Plays by a different set of rules than the standard ones. */
+    void setRules(Rules rules) {
+        this.rules = rules;
+    }
+
+    Rules getRules() {
+        return rules;
+    }
+
+    /** Gives the creatures a different amount of time to think than the
+        standard one second of wall time. */
+    void setBudget(ThinkBudget budget) {
+        this.budget = budget;
+        meter = budget.new Meter();
+        meters = meters(budget);
+    }
+
+    /** @return A meter for each creature. */
+    private static ThinkBudget.Meter[] meters(ThinkBudget budget) {
+        ThinkBudget.Meter m[] = new ThinkBudget.Meter[4];
+        for (int i = 0; i < m.length; ++i)
+            m[i] = budget.new Meter();
+        return m;
+    }
+
+    ThinkBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Plays in rounds rather than one creature at a time. Each round,
+     * the living creatures all think at once on the same board (both
+     * sheep, then everyone, so sheep still move twice a turn), and then
+     * their moves are carried out one by one in turn queue order. Player
+     * 1 goes first on even turns and player 2 on odd turns, so neither
+     * always has the edge. A move into a square that an earlier move of
+     * the round has filled bumps, as it would have anyway, and a sheep
+     * eaten earlier in the round doesn't move at all.
+     *
+     * A game then takes as long as its slowest thinker each round, rather
+     * than all of them added up.
+     */
+    void setSimultaneous(boolean simultaneous) {
+        this.simultaneous = simultaneous;
+    }
+
+    boolean isSimultaneous() {
+        return simultaneous;
+    }
+
+    /**
+     * Sets the seed for the game. Every creature gets a random number
+     * generator of its own, seeded from this, so a game can be played
+     * again exactly (as long as the creatures only use
+     * {@link Creature#random()}). Must be set before the game starts;
+     * the default is a random seed.
+     */
+    void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return The <code>n</code>th seed made from <code>seed</code>.
+     *         Close seeds and close <code>n</code>s give unrelated
+     *         results (this is the SplitMix64 mixing function).
+     */
+    static long seed(long seed, long n) {
+        long z = seed + (n + 1) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Sets who runs the creatures' thinking. Without one, the game makes
+        a {@link PooledThinkScheduler} of its own. */
+    void setThinkScheduler(ThinkScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Plays the game to the end.
+     *
+     * @return The outcome of the game.
+     */
+    MatchResult run() {
+        boolean ownScheduler = scheduler == null;
+        if (ownScheduler)
+            scheduler = new PooledThinkScheduler();
+
+        try {
+            start();
+            play();
+        } finally {
+            if (ownScheduler) {
+                scheduler.shutdown();
+                scheduler = null;
+            }
+        }
+
+        return finish();
+    }
+
+    /** Tells everyone the game is about to start. */
+    private void start() {
+        for (int id = 0; id < 4; ++id)
+            creature(id).random = new Random(seed(seed, id));
+        for (GameObserver o : observers)
+            o.gameStarted(this);
+    }
+
+    /** The game loop. */
+    private void play() {
         for (turn = 0; turn < TURNS && playerWon == 0; ++turn) {
-            for (Creature c : turnQueue) {
+            if (simultaneous) {
+                for (int r = 0; r + 1 < ROUNDS.length && playerWon == 0; ++r)
+                    playRound(ROUNDS[r], ROUNDS[r + 1]);
+                continue;
+            }
+
+            for (step = 0; step < turnQueue.size(); ++step) {
+                Creature c = turnQueue.get(step);
 
                 if (!c.alive)
                     continue;
 
-                final Creature curCreature = c;
-                SwingUtilities.invokeLater(new Runnable() {
-                        public void run() {
-                            display(curCreature);
-                            strategy.show();
-                        }
-                    });
+                long t = clock();
+                for (GameObserver o : observers)
+                    o.turnStarted(this, c);
+                time(MatchStats.Phase.OBSERVERS, t);
 
                 int oldx = c.x;
                 int oldy = c.y;
-                long startTime = System.nanoTime();
-
-                final Type[][] mapCopy = new Type[map.length][map[0].length];
-                for (int i = 0; i < map.length; i++) {
-                    System.arraycopy(map[i], 0, mapCopy[i], 0, map[i].length);
-                }
 
-                Thread thinker = new Thread(new Runnable() {
-                        public void run() {
-                            curCreature.think(curCreature.filter(mapCopy));
-                        }
-                    });
-
-                thinker.start();
-                int maxWait = (int)((startTime / 1000000) + THINKLIMIT + 100);
-                while (true) {
-                    try {
-                        thinker.join(maxWait - (System.nanoTime() / 1000000));
-                    } catch (InterruptedException e) {
-                        continue;
-                    }
-                    break;
-                }
+                meter.begin(spent[c.playerID - 1]);
+                boolean finished = !meter.over()
+                    && scheduler.think(c.planner, meter);
 
-                int elapsedTime = (int)((System.nanoTime() - startTime)
-                                        / 1000000);
+                long thinkTime = meter.charged();
+                spent[c.playerID - 1] += thinkTime;
 
                 if (oldx != c.x || oldy != c.y) {
-                    System.out.println("Player " + c.playerID + " has "
-                                       + "cheated! DISQUALIFIED!");
-                    System.exit(0);
+                    disqualify(c, Foul.CHEATED, thinkTime);
+                    break;
                 }
 
-                if (elapsedTime > THINKLIMIT) {
-                    System.out.println("Player " + c.playerID + " used over "
-                                       + "one second! DISQUALIFIED!");
-                    playerWon = c.playerID == 1 ? 2 : 1;
+                // A thinker that didn't finish has been abandoned, and
+                // whatever it does to its plan from now on is ignored
+                if (!finished || meter.over()) {
+                    disqualify(c, meter.outOfGame() ? Foul.OVERBUDGET
+                               : Foul.TIMEOUT, thinkTime);
                 } else {
-                    if (elapsedTime < WAITMIN)
+                    if (meter.wall < pace)
                         try {
-                            Thread.sleep(WAITMIN - elapsedTime);
+                            long wait = pace - meter.wall;
+                            Thread.sleep(wait / 1000000,
+                                         (int)(wait % 1000000));
                         } catch (InterruptedException ie) {
                             System.out.println(ie.getMessage());
                         }
-                    action(c);
+                    move(c, thinkTime);
                 }
 
+                t = clock();
                 checkMap();
+                time(MatchStats.Phase.CHECKMAP, t);
 
                 if (playerWon != 0)
                     break;
             }
         }
+    }
+
+    /**
+     * Plays one round of a simultaneous turn: the creatures from
+     * <code>from</code> up to <code>to</code> in the turn queue.
+     *
+     * @see #setSimultaneous(boolean)
+     */
+    private void playRound(int from, int to) {
+        step = from;
+
+        Creature round[] = new Creature[to - from];
+        int n = 0;
+        for (int i = from; i < to; ++i) {
+            // The queue alternates between the players, so swapping
+            // neighbours puts player 2 first
+            Creature c = turnQueue.get(turn % 2 == 0 ? i : i ^ 1);
+            if (c.alive)
+                round[n++] = c;
+        }
+        if (n == 0)
+            return;
+
+        long t = clock();
+        for (int k = 0; k < n; ++k)
+            for (GameObserver o : observers)
+                o.turnStarted(this, round[k]);
+        time(MatchStats.Phase.OBSERVERS, t);
+
+        int sharing[] = new int[2];
+        for (int k = 0; k < n; ++k)
+            sharing[round[k].playerID - 1]++;
+
+        Runnable tasks[] = new Runnable[n];
+        int oldx[] = new int[n];
+        int oldy[] = new int[n];
+        for (int k = 0; k < n; ++k) {
+            Creature c = round[k];
+            tasks[k] = c.planner;
+            oldx[k] = c.x;
+            oldy[k] = c.y;
+            // A team's creatures thinking at once share what it has left,
+            // so together they can't go over the team's budget
+            meters[k].begin(spent[c.playerID - 1],
+                            sharing[c.playerID - 1]);
+        }
+        boolean finished[] = new boolean[n];
+        scheduler.thinkAll(tasks, meters, finished);
+
+        long thinkTime[] = new long[n];
+        long longest = 0;
+        for (int k = 0; k < n; ++k) {
+            thinkTime[k] = meters[k].charged();
+            spent[round[k].playerID - 1] += thinkTime[k];
+            longest = Math.max(longest, meters[k].wall);
+        }
+
+        // Nothing has moved yet, so a foul anywhere in the round ends the
+        // game before any of it is carried out
+        for (int k = 0; k < n; ++k) {
+            Creature c = round[k];
+            if (oldx[k] != c.x || oldy[k] != c.y) {
+                disqualify(c, Foul.CHEATED, thinkTime[k]);
+                return;
+            }
+            if (!finished[k] || meters[k].over()) {
+                disqualify(c, meters[k].outOfGame() ? Foul.OVERBUDGET
+                           : Foul.TIMEOUT, thinkTime[k]);
+                return;
+            }
+        }
+
+        if (longest < pace)
+            try {
+                long wait = pace - longest;
+                Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+            } catch (InterruptedException ie) {
+                System.out.println(ie.getMessage());
+            }
+
+        for (int k = 0; k < n; ++k) {
+            Creature c = round[k];
+            if (!c.alive)
+                continue;
+            move(c, thinkTime[k]);
+
+            t = clock();
+            checkMap();
+            time(MatchStats.Phase.CHECKMAP, t);
+
+            if (playerWon != 0)
+                return;
+        }
+    }
+
+    /** Carries out a creature's plan and tells everyone about it. */
+    private void move(Creature c, long thinkTime) {
+        long t = clock();
+        action(c);
+        time(MatchStats.Phase.ACTION, t);
+
+        t = clock();
+        for (GameObserver o : observers)
+            o.moved(this, c, c.move, thinkTime);
+        time(MatchStats.Phase.OBSERVERS, t);
+    }
+
+    /** @return The time now, if the engine is being timed. */
+    private long clock() {
+        return stats == null ? 0 : System.nanoTime();
+    }
 
+    /** Notes the time spent on <code>phase</code> since
+        <code>start</code>, if the engine is being timed. */
+    private void time(MatchStats.Phase phase, long start) {
+        if (stats != null)
+            stats.engine(phase, System.nanoTime() - start);
+    }
+
+    /**
+     * Hands the game to the opponent of a misbehaving creature.
+     */
+    private void disqualify(Creature c, Foul foul, long thinkTime) {
+        reason = "Player " + c.playerID + " " + foul.description
+            + "! DISQUALIFIED!";
+        playerWon = c.playerID == 1 ? 2 : 1;
+        for (GameObserver o : observers)
+            o.disqualified(this, c, foul, thinkTime);
+    }
+
+    /** Decides the winner if the game ran out of turns, and tells
+        everyone the game is over. */
+    private MatchResult finish() {
         if (playerWon == 0) {
             setWinner();
         }
 
-        SwingUtilities.invokeLater(new Runnable() {
-                public void run() {
-                    display(null); // Display winning screen
-                    strategy.show();
-                }
-            });
+        MatchResult result = new MatchResult(mapName, teams[0], teams[1],
+                                             playerWon, p[0].score,
+                                             p[1].score, turn, reason, seed);
+        for (GameObserver o : observers)
+            o.gameOver(this, result);
+
+        return result;
+    }
+
+    /*
+     * Replaying. These drive the game from a recording instead of asking
+     * the creatures, going through the same steps as the game loop.
+     */
+
+    void replayStart() {
+        start();
+    }
+
+    /** Moves on to the next turn. */
+    void replayTurn() {
+        ++turn;
+    }
+
+    /** Says where in the game we are: turn <code>turn</code>, with the
+        creature at <code>step</code> in the turn queue to move next. */
+    void replayAt(int turn, int step) {
+        this.turn = turn;
+        this.step = step;
+    }
+
+    /** Carries out a recorded move. */
+    void replayMove(Creature c, Creature.Move m, long thinkTime) {
+        for (GameObserver o : observers)
+            o.turnStarted(this, c);
+        c.move = m;
+        move(c, thinkTime);
+        checkMap();
+    }
+
+    /** Carries out a recorded disqualification. */
+    void replayFoul(Creature c, Foul foul, long thinkTime) {
+        for (GameObserver o : observers)
+            o.turnStarted(this, c);
+        disqualify(c, foul, thinkTime);
+        if (foul != Foul.CHEATED)
+            checkMap();
+    }
+
+    /**
+     * Puts the game back to a recorded state.
+     *
+     * @param cells The board, as type ordinals row after row.
+     * @param score The players' scores.
+     * @param x Creature positions, by {@link #creatureID(Creature)}.
+     * @param y Creature positions, by {@link #creatureID(Creature)}.
+     * @param alive Which creatures are alive.
+     * @param turn The turn that's about to start.
+     */
+    void replayRestore(byte cells[], int score[], int x[], int y[],
+                       boolean alive[], int turn) {
+        Type types[] = Type.values();
+        for (int i = 0, yy = 0; yy < map.height(); ++yy)
+            for (int xx = 0; xx < map.width(); ++xx, ++i)
+                if (map.get(xx, yy) != types[cells[i]])
+                    map.set(xx, yy, types[cells[i]]);
+
+        for (int i = 0; i < 2; ++i)
+            p[i].score = score[i];
+        for (int id = 0; id < 4; ++id) {
+            Creature c = creature(id);
+            c.x = x[id];
+            c.y = y[id];
+            c.alive = alive[id];
+        }
+
+        this.turn = turn;
+        playerWon = 0;
+        reason = null;
+    }
+
+    /** Ends a replayed game. */
+    MatchResult replayFinish() {
+        ++turn;  // Like the game loop does on its way out
+        return finish();
     }
 
     /**
@@ -174,166 +603,119 @@ public class Simulator {
      * If not it declares a winner.
      * @see #setWinner()
      */
-    private void checkMap() {
-        for (int i = 0; i < map.length; i++) {
-            for (int j = 0; j < map[i].length; j++) {
-                if (map[i][j] == Type.GRASS || map[i][j] == Type.RHUBARB) {
-                    return;
-                }
-            }
-        }
+    void checkMap() {
+        if (DEBUG)
+            verify();
+
+        if (map.food() > 0)
+            return;
 
         setWinner();
     }
 
+    /**
+     * Makes sure the running counts and creature positions agree with
+     * what's actually on the board.
+     *
+     * @throws IllegalStateException if they don't.
+     */
+    private void verify() {
+        map.verify();
+        for (Player player : p) {
+            verify(player.sheep);
+            verify(player.wolf);
+        }
+    }
+
+    private void verify(Creature c) {
+        if (!c.alive)
+            return;
+
+        Type t = map.get(c.x, c.y);
+        if (t == c.type)
+            return;
+
+        // A sheep that walks into a wolf is left lying on top of it
+        for (Player player : p)
+            if (t == player.sheep.type && !player.sheep.alive
+                && player.sheep.x == c.x && player.sheep.y == c.y)
+                return;
+
+        throw new IllegalStateException(c.type + " should be at (" + c.x
+                                        + ", " + c.y + ") but found " + t);
+    }
+
     /**
      * Declares a winner based on the team scores.
      */
     private void setWinner() {
-        if (p[0].score > p[1].score)
-            playerWon = 1;
-        else if (p[0].score < p[1].score)
-            playerWon = 2;
-        else
-            playerWon = -1;  // It's a draw
-    }
-
-    /** This method does magic stuff. Proceed at your own risk. */
-    Player loadTeam(String teamName, Color c, int playerID)
-        throws ClassNotFoundException, InstantiationException,
-               NoSuchMethodException, IllegalAccessException,
-               InvocationTargetException
-    {
-        ClassLoader loader = getClass().getClassLoader();
-        String pack = "kingsheep.team." + teamName + ".";
+        playerWon = GameState.byScore(p[0].score, p[1].score);
+    }
 
-        Creature sheep = (Creature)loader.loadClass(pack + "Sheep")
-            .getConstructors()[0]
-            .newInstance(playerID == 1 ? Type.SHEEP1 : Type.SHEEP2,
-                         playerID, -1, -1);
+    /** Loads a team, keeping its classes for later games.
+        @see TeamLoader */
+    static Player loadTeam(String teamName, int playerID)
+        throws ReflectiveOperationException
+    {
+        return TeamLoader.SHARED.player(teamName, playerID);
+    }
 
-        Creature wolf = (Creature)loader.loadClass(pack + "Wolf")
-            .getConstructors()[0]
-            .newInstance(playerID == 1 ? Type.WOLF1 : Type.WOLF2,
-                         playerID, -1, -1);
+    /** The live map. Observers must treat it as read-only. */
+    Board getBoard() {
+        return map;
+    }
 
-        Player p = new Player(sheep, wolf, c);
+    int getTurn() {
+        return turn;
+    }
 
-        return p;
+    /** @return Where in the turn queue the current turn has got to. */
+    int getStep() {
+        return step;
     }
 
-    /** Loads the necessary image files. */
-    private void loadImages() {
-        gfx        = new Gfx();
-        imgEmpty   = loadImage("gfx/empty.png");
-        imgSheep1  = loadImage("gfx/sheep1.png");
-        imgSheep2  = loadImage("gfx/sheep2.png");
-        imgWolf1   = loadImage("gfx/wolf1.png");
-        imgWolf2   = loadImage("gfx/wolf2.png");
-        imgGrass   = loadImage("gfx/grass.png");
-        imgRhubarb = loadImage("gfx/rhubarb.png");
-        imgSkigard = loadImage("gfx/skigard.png");
+    int queueLength() {
+        return turnQueue.size();
     }
 
-    /**
-     * Loads an image through the resource system.
-     *
-     * @param fileName The name of the file to load.
-     * @return An ImageIcon containing the loaded image.
-     */
-    private ImageIcon loadImage(String fileName) {
-        ImageIcon ret = null;
-        try {
-            ret = new ImageIcon(getClass().getClassLoader()
-                                .getResource(fileName));
-        } catch (Exception e) {
-            System.err.printf("Could not load image (%s) - %s%n",
-                              fileName,
-                              e.getMessage());
-            System.exit(1);
-        }
-        return ret;
+    /** @return The creature at <code>step</code> in the turn queue, as
+        {@link #creatureID(Creature)}. */
+    int queued(int step) {
+        return creatureID(turnQueue.get(step));
     }
 
-    /** Displays the screen.
-     *
-     *  @param c
-     *         Creature whose turn it is to move.
-     */
-    private void display(Creature c) {
-        Graphics g = strategy.getDrawGraphics();
-        ImageIcon drawMe = null;
-
-        g.setColor(Color.GREEN);
-        g.fillRect(0, 0, Gfx.WIDTH, Gfx.HEIGHT);
-
-        for (int i = 0; i < Gfx.YUNIT; ++i) {
-            for (int j = 0; j < Gfx.XUNIT; ++j) {
-                switch (map[i][j]) {
-                case EMPTY:
-                    drawMe = imgEmpty;
-                    break;
-                case GRASS:
-                    drawMe = imgGrass;
-                    break;
-                case FENCE:
-                    drawMe = imgSkigard;
-                    break;
-                case RHUBARB:
-                    drawMe = imgRhubarb;
-                    break;
-                case SHEEP1:
-                    drawMe = imgSheep1;
-                    break;
-                case SHEEP2:
-                    drawMe = imgSheep2;
-                    break;
-                case WOLF1:
-                    drawMe = imgWolf1;
-                    break;
-                case WOLF2:
-                    drawMe = imgWolf2;
-                    break;
-                default:
-                    break;
-                }
+    /** @return 0 while the game is running, otherwise the winner (1 or 2)
+        or -1 for a draw. */
+    int getWinner() {
+        return playerWon;
+    }
 
-                g.drawImage(drawMe.getImage(), j * Gfx.UNIT, i * Gfx.UNIT,
-                            null, null);
-            }
-        }
+    /** @param i 0 for player 1, 1 for player 2. */
+    Player getPlayer(int i) {
+        return p[i];
+    }
 
-        g.setFont(new Font(Font.MONOSPACED, Font.BOLD, FONTSIZE));
-        g.setColor(Color.RED);
+    String getMapName() {
+        return mapName;
+    }
 
-        if (c != null) {
-            String species = c.isSheep() ? "Sheep" : "Wolf";
-            g.drawString("Player " + c.playerID + " (" + species
-                         + ") thinking...", 5, 14);
-        }
+    /** @param i 0 for player 1, 1 for player 2. */
+    String getTeam(int i) {
+        return teams[i];
+    }
 
-        g.drawString("Turn " + turn + "/" + TURNS,
-                     Gfx.WIDTH - 90, 14);
-        g.setColor(p[0].color);
-        g.drawString("Player 1 score: " + p[0].score, 300, 14);
-        g.setColor(p[1].color);
-        g.drawString("Player 2 score: " + p[1].score, 550, 14);
-
-        if (playerWon != 0) {
-            g.setColor(Color.RED);
-            g.setFont(new Font(Font.MONOSPACED, Font.BOLD, 100));
-            if (playerWon == -1) {
-                g.setColor(drawColor);
-                g.drawString("It's a draw!",
-                             130, Gfx.HEIGHT / 2);
-            } else {
-                g.setColor(p[playerWon - 1].color);
-                g.drawString("Player " + playerWon + " won!",
-                             100, Gfx.HEIGHT / 2);
-            }
-        }
+    /**
+     * Numbers the creatures 0 to 3: player 1's sheep, player 2's sheep,
+     * player 1's wolf, player 2's wolf.
+     */
+    int creatureID(Creature c) {
+        return (c.isSheep() ? 0 : 2) + c.playerID - 1;
+    }
 
-        g.dispose();
+    /** @see #creatureID(Creature) */
+    Creature creature(int id) {
+        Player player = p[id & 1];
+        return id < 2 ? player.sheep : player.wolf;
     }
 
     /** Determines whether the planned move is legal.
@@ -347,23 +729,8 @@ public class Simulator {
      *  @return
      *         <code>true</code> of the planned move is legal.
      */
-    private boolean legalMove(int x, int y, Type t1) {
-
-        Type t2 = map[y][x];
-        if (t2 == Type.FENCE ||
-            (t1 == Type.SHEEP1) && (t2 == Type.WOLF1)  ||
-            (t1 == Type.SHEEP2) && (t2 == Type.WOLF2)  ||
-            (t1 == Type.SHEEP1) && (t2 == Type.WOLF2)  ||
-            (t1 == Type.SHEEP2) && (t2 == Type.WOLF1)  ||
-            (t1 == Type.SHEEP1) && (t2 == Type.SHEEP2) ||
-            (t1 == Type.SHEEP2) && (t2 == Type.SHEEP1) ||
-            (t1 == Type.WOLF1)  && (t2 == Type.SHEEP1) ||
-            (t1 == Type.WOLF1)  && (t2 == Type.WOLF2)  ||
-            (t1 == Type.WOLF2)  && (t2 == Type.WOLF1)  ||
-            (t1 == Type.WOLF2)  && (t2 == Type.SHEEP2))
-            return false;
-
-        return true;
+    boolean legalMove(int x, int y, Type t1) {
+        return !rules.blocks(t1, map.get(x, y));
     }
 
     /** Attempts to move a creature according to it's plan.
@@ -378,8 +745,8 @@ public class Simulator {
         
         switch (c.move) {
         case RIGHT:
-            if ((c.x < Gfx.XUNIT - 1) && legalMove(c.x + 1, c.y, c.type)) {
-                map[c.y][c.x] = Type.EMPTY;
+            if ((c.x < map.width() - 1) && legalMove(c.x + 1, c.y, c.type)) {
+                map.set(c.x, c.y, Type.EMPTY);
                 c.x++;
             } else {
                 return;
@@ -387,7 +754,7 @@ public class Simulator {
             break;
         case LEFT:
             if ((c.x > 0) && legalMove(c.x - 1, c.y, c.type)) {
-                map[c.y][c.x] = Type.EMPTY;
+                map.set(c.x, c.y, Type.EMPTY);
                 c.x--;
             } else {
                 return;
@@ -395,15 +762,15 @@ public class Simulator {
             break;
         case UP:
             if ((c.y > 0) && legalMove(c.x, c.y - 1, c.type)) {
-                map[c.y][c.x] = Type.EMPTY;
+                map.set(c.x, c.y, Type.EMPTY);
                 c.y--;
             } else {
                 return;
             }
             break;
         case DOWN:
-            if ((c.y < Gfx.YUNIT - 1) && legalMove(c.x, c.y + 1, c.type)) {
-                map[c.y][c.x] = Type.EMPTY;
+            if ((c.y < map.height() - 1) && legalMove(c.x, c.y + 1, c.type)) {
+                map.set(c.x, c.y, Type.EMPTY);
                 c.y++;
             } else {
                 return;
@@ -413,33 +780,17 @@ public class Simulator {
             break;
         }
 
-        if (map[c.y][c.x] == Type.GRASS && c.isSheep())
-            p[c.playerID - 1].score++;
-        else if (map[c.y][c.x] == Type.RHUBARB && c.isSheep())
-            p[c.playerID - 1].score += 5;
-        else if (map[c.y][c.x] == Type.SHEEP1 && c.type == Type.WOLF2)
-            p[0].sheep.alive = false;
-        else if (map[c.y][c.x] == Type.SHEEP2 && c.type == Type.WOLF1)
-            p[1].sheep.alive = false;
-        else if (map[c.y][c.x] == Type.WOLF2 && c.type == Type.SHEEP1)
-            p[0].sheep.alive = false;
-        else if (map[c.y][c.x] == Type.WOLF1 && c.type == Type.SHEEP2)
-            p[1].sheep.alive = false;
-
-        if (!p[0].sheep.alive && playerWon == 0 && p[0].score < p[1].score)
-            playerWon = 2;
-        else if (!p[1].sheep.alive && playerWon == 0
-                 && p[1].score < p[0].score)
-            playerWon = 1;
-        else if (!p[0].sheep.alive && !p[1].sheep.alive)
-            if (p[0].score < p[1].score)
-                playerWon = 2;
-            else if (p[1].score < p[0].score)
-                playerWon = 1;
-            else
-                playerWon = -1;
-            
-
-        map[c.y][c.x] = c.type;
+        Type target = map.get(c.x, c.y);
+        p[c.playerID - 1].score += rules.score(c.type, target);
+
+        Type victim = rules.victim(c.type, target);
+        if (victim != null)
+            p[victim == Type.SHEEP1 ? 0 : 1].sheep.alive = false;
+
+        playerWon = GameState.afterMove(playerWon, p[0].sheep.alive,
+                                        p[1].sheep.alive, p[0].score,
+                                        p[1].score);
+
+        map.set(c.x, c.y, c.type);
     }
 }
\ No newline at end of file
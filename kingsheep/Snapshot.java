@@ -0,0 +1,70 @@
+package kingsheep;
+
+/**
+ * What a game looked like at one moment. Snapshots never change, so the
+ * game can hand one over to another thread (like the one drawing the
+ * screen) and carry on without waiting.
+ */
+final class Snapshot {
+
+    private static final Type TYPES[] = Type.values();
+
+    final int width;
+    final int height;
+
+    /** The board, as type ordinals row after row. */
+    private final byte cells[];
+
+    final int turn;
+    final int score1;
+    final int score2;
+
+    /** 0 while playing, 1 or 2 for the winning player, -1 for a draw. */
+    final int winner;
+
+    /** The creature thinking (see {@link Simulator#creatureID(Creature)}),
+        or -1 if none is. */
+    final int thinking;
+
+    /** A line of text to show when no creature is thinking, or
+        <code>null</code>. */
+    final String status;
+
+    /**
+     * Takes a snapshot of a game. Must be called on the thread running
+     * it.
+     *
+     * @param c Creature that is thinking, or <code>null</code>.
+     * @param status Text to show when no creature is thinking, or
+     *        <code>null</code>.
+     */
+    static Snapshot of(Simulator sim, Creature c, String status) {
+        return new Snapshot(sim, c, status);
+    }
+
+    private Snapshot(Simulator sim, Creature c, String status) {
+        Board map = sim.getBoard();
+        width = map.width();
+        height = map.height();
+        cells = new byte[width * height];
+        for (int i = 0, y = 0; y < height; ++y)
+            for (int x = 0; x < width; ++x)
+                cells[i++] = (byte)map.get(x, y).ordinal();
+
+        turn = sim.getTurn();
+        score1 = sim.getPlayer(0).score;
+        score2 = sim.getPlayer(1).score;
+        winner = sim.getWinner();
+        thinking = c == null ? -1 : sim.creatureID(c);
+        this.status = status;
+    }
+
+    Type get(int x, int y) {
+        return TYPES[cells[y * width + x]];
+    }
+
+    /** @return Player <code>i</code>'s score (0 or 1). */
+    int score(int i) {
+        return i == 0 ? score1 : score2;
+    }
+}
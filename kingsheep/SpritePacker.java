@@ -0,0 +1,98 @@
+package kingsheep;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.imageio.ImageIO;
+
+/**
+ * Packs the sprites for the squares into one image, the atlas, so the
+ * game reads and decodes one file rather than one per type of square.
+ * The build packs the sprites in <code>res/gfx</code>, and {@link Sprites}
+ * picks the atlas up by itself.
+ *
+ * The atlas is one row of equally sized squares, one for each
+ * {@link Type} in order, as wide as the sprites are tall.
+ *
+ * <pre>
+ *     java -cp kingsheep.jar kingsheep.SpritePacker dir
+ * </pre>
+ */
+final class SpritePacker {
+
+    /** Where the atlas is, on the class path. */
+    static final String ATLAS = "gfx/atlas.png";
+
+    /** The sprite of each type, by ordinal. */
+    private static final String SPRITES[] = {
+        "gfx/empty.png", "gfx/grass.png", "gfx/skigard.png",
+        "gfx/rhubarb.png", "gfx/sheep1.png", "gfx/sheep2.png",
+        "gfx/wolf1.png", "gfx/wolf2.png"
+    };
+
+    private SpritePacker() {
+    }
+
+    /**
+     * Reads the separate sprites from the class path and packs them.
+     *
+     * @throws IOException if a sprite can't be read, or they aren't all
+     *         the same size.
+     */
+    static BufferedImage pack() throws IOException {
+        BufferedImage sprites[] = new BufferedImage[SPRITES.length];
+        for (int i = 0; i < SPRITES.length; ++i)
+            sprites[i] = read(SPRITES[i]);
+
+        int size = sprites[0].getHeight();
+        BufferedImage atlas = new BufferedImage(size * sprites.length, size,
+                                                BufferedImage.TYPE_INT_ARGB);
+        int pixels[] = new int[size * size];
+        for (int i = 0; i < sprites.length; ++i) {
+            if (sprites[i].getWidth() != size
+                || sprites[i].getHeight() != size)
+                throw new IOException(SPRITES[i] + " is not " + size + "x"
+                                      + size + " like the others");
+            // Copied pixel by pixel, as drawing would blend the
+            // see-through edges
+            sprites[i].getRGB(0, 0, size, size, pixels, 0, size);
+            atlas.setRGB(i * size, 0, size, size, pixels, 0, size);
+        }
+        return atlas;
+    }
+
+    /** @return An image from the class path. */
+    static BufferedImage read(String name) throws IOException {
+        InputStream in = SpritePacker.class.getClassLoader()
+            .getResourceAsStream(name);
+        if (in == null)
+            throw new IOException("Could not find image " + name);
+        try {
+            BufferedImage image = ImageIO.read(in);
+            if (image == null)
+                throw new IOException("Could not read image " + name);
+            return image;
+        } finally {
+            in.close();
+        }
+    }
+
+    public static void main(String args[]) {
+        if (args.length != 1) {
+            System.err.println("Usage: SpritePacker dir");
+            System.exit(1);
+        }
+
+        File target = new File(args[0], ATLAS);
+        try {
+            target.getParentFile().mkdirs();
+            if (!ImageIO.write(pack(), "png", target))
+                throw new IOException("No PNG writer");
+            System.out.println("Packed the sprites into " + target);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package kingsheep;
+
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The pictures of the squares, each loaded in the background the first
+ * time it's asked for.
+ *
+ * {@link #get(Type)} never waits: until a sprite is ready it returns
+ * <code>null</code>, and whoever is drawing puts something plainer in its
+ * place for the time being. The atlas made by {@link SpritePacker} is read
+ * the first time any sprite is wanted, and each sprite is converted to the
+ * screen's own image format, which makes drawing it fast, the first time
+ * it is wanted.
+ *
+ * Without an atlas on the class path (say, running straight from the
+ * source tree), the separate sprites are read and packed instead.
+ */
+final class Sprites {
+
+    private final ExecutorService loader =
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "kingsheep-sprites");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /** The sprites loaded so far, by type ordinal. */
+    private final AtomicReferenceArray<BufferedImage> sprites =
+        new AtomicReferenceArray<BufferedImage>(Type.values().length);
+    private final AtomicBoolean requested[] =
+        new AtomicBoolean[Type.values().length];
+
+    /** Number of sprites loaded so far. */
+    private final AtomicInteger loaded = new AtomicInteger();
+
+    /** Only used on the loader thread. */
+    private BufferedImage atlas;
+
+    /** Set if the images couldn't be loaded, so none will arrive. */
+    private volatile boolean failed;
+
+    Sprites() {
+        for (int i = 0; i < requested.length; ++i)
+            requested[i] = new AtomicBoolean();
+    }
+
+    /**
+     * @return The picture of <code>t</code>, or <code>null</code> if it
+     *         isn't loaded yet (in which case it's on its way).
+     */
+    BufferedImage get(Type t) {
+        final int i = t.ordinal();
+        BufferedImage image = sprites.get(i);
+        if (image == null && requested[i].compareAndSet(false, true))
+            loader.execute(new Runnable() {
+                    public void run() {
+                        load(i);
+                    }
+                });
+        return image;
+    }
+
+    /** @return Number of sprites loaded so far; goes up as they
+        arrive. */
+    int loaded() {
+        return loaded.get();
+    }
+
+    /** @return <code>true</code> if no more sprites will arrive, because
+        the images couldn't be loaded. */
+    boolean failed() {
+        return failed;
+    }
+
+    /** Loads one sprite, on the loader thread. */
+    private void load(int i) {
+        if (failed)
+            return;
+        try {
+            if (atlas == null) {
+                BufferedImage a;
+                try {
+                    a = SpritePacker.read(SpritePacker.ATLAS);
+                } catch (IOException e) {
+                    a = SpritePacker.pack();
+                }
+                if (a.getWidth() != a.getHeight() * requested.length)
+                    throw new IOException(SpritePacker.ATLAS
+                                          + " should have "
+                                          + requested.length + " sprites");
+                atlas = a;
+            }
+
+            int size = atlas.getHeight();
+            sprites.set(i, compatible(atlas.getSubimage(i * size, 0,
+                                                        size, size)));
+            loaded.incrementAndGet();
+        } catch (IOException e) {
+            // Plain squares will have to do
+            failed = true;
+            System.err.printf("Could not load images - %s%n",
+                              e.getMessage());
+        }
+    }
+
+    /** @return The image in the screen's own format, if there is a
+        screen. */
+    private static BufferedImage compatible(BufferedImage image) {
+        if (GraphicsEnvironment.isHeadless())
+            return image;
+        GraphicsConfiguration gc = GraphicsEnvironment
+            .getLocalGraphicsEnvironment().getDefaultScreenDevice()
+            .getDefaultConfiguration();
+        if (image.getColorModel().equals(gc.getColorModel()))
+            return image;
+
+        BufferedImage c = gc.createCompatibleImage
+            (image.getWidth(), image.getHeight(), Transparency.TRANSLUCENT);
+        Graphics g = c.getGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return c;
+    }
+}
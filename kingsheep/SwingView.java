@@ -0,0 +1,448 @@
+package kingsheep;
+
+import java.awt.Graphics;
+import java.awt.image.BufferStrategy;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.GraphicsConfiguration;
+import java.awt.image.BufferedImage;
+import java.awt.event.KeyListener;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.SwingUtilities;
+
+/**
+ * Shows a running game in a window.
+ *
+ * The game never waits for the screen. It publishes a {@link Snapshot}
+ * whenever the render loop has asked for one, and the render loop, on a
+ * thread of its own, shows the newest one {@link #FPS} times a second.
+ * Whatever happened in between is simply skipped. Once the game is over
+ * and its last picture is on the screen, the loop stops, and the window
+ * is only drawn again when it needs to be.
+ *
+ * Call {@link #awaitReady()} before starting the game, so it isn't half
+ * over by the time the window is up. The pictures are loaded in the
+ * background as they're first drawn; until one is ready, its squares are
+ * drawn in a plain colour, and the map is redrawn as pictures arrive.
+ */
+class SwingView implements GameObserver {
+
+    /** Font size used for the top-window text. */
+    private static final int FONTSIZE = 14;
+
+    /** Java stuff for showing neat graphics. */
+    private Gfx gfx;
+    private BufferStrategy strategy;
+    private final Color drawColor;
+    private final Color playerColor[] = {
+        new Color(222, 0, 0), new Color(0, 0, 222)
+    };
+
+    /** Screen updates per second. */
+    static final int FPS = 60;
+
+    /** The newest picture of the game, and whether the render loop wants
+        a new one. */
+    private final AtomicReference<Snapshot> latest
+        = new AtomicReference<Snapshot>();
+    private final AtomicBoolean wanted = new AtomicBoolean(true);
+
+    /** The snapshot on the screen now. Only used by the render loop. */
+    private Snapshot shown;
+
+    /** The picture of the game at its end, once it's over. */
+    private volatile Snapshot last;
+
+    /** The render loop, and whether it's been stopped since the game is
+        over. */
+    private ScheduledFuture<?> loop;
+    private volatile boolean stopped;
+
+    private final ScheduledExecutorService renderer
+        = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "kingsheep-render");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /** The fences and empty ground, painted once. */
+    private BufferedImage background;
+
+    /** The whole map as it was last shown, and what's drawn where on
+        it. */
+    private BufferedImage frame;
+    private Type drawn[][];
+
+    /** Things for the text on top, made once and reused. */
+    private final Font hudFont = new Font(Font.MONOSPACED, Font.BOLD,
+                                          FONTSIZE);
+    private final Font bigFont = new Font(Font.MONOSPACED, Font.BOLD, 100);
+    private final String thinking[] = {
+        "Player 1 (Sheep) thinking...", "Player 2 (Sheep) thinking...",
+        "Player 1 (Wolf) thinking...", "Player 2 (Wolf) thinking..."
+    };
+    private int hudTurn = -1;
+    private String turnText;
+    private final int hudScore[] = new int[2];
+    private final String scoreText[] = new String[2];
+
+    /** The images, loaded as they're first drawn. */
+    private final Sprites sprites = new Sprites();
+
+    /** Whether the map was last painted with plain squares in place of
+        images that weren't loaded yet, and how many were loaded then. */
+    private boolean placeholders;
+    private int spritesPainted;
+
+    /** Whether the window has its icon yet. Only used by the render
+        loop. */
+    private boolean hasIcon;
+
+    /** Counted down once the window is up. */
+    private final CountDownLatch ready = new CountDownLatch(1);
+
+    /**
+     * @param columns Number of horizontal squares on the map.
+     * @param rows Number of vertical squares on the map.
+     */
+    SwingView(final int columns, final int rows) {
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    gfx = new Gfx(columns, rows) {
+                            public void paint(Graphics g) {
+                                if (stopped)
+                                    redraw();
+                                else
+                                    super.paint(g);
+                            }
+                        };
+                    strategy = gfx.getBufferStrategy();
+                    renderer.execute(new Runnable() {
+                            public void run() {
+                                startRendering();
+                            }
+                        });
+                }
+            });
+        drawColor = new Color(222, 0, 222);
+    }
+
+    /** Starts the render loop, once the window is up. */
+    private void startRendering() {
+        ready.countDown();
+        loop = renderer.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    render();
+                }
+            }, 0, 1000000000L / FPS, TimeUnit.NANOSECONDS);
+    }
+
+    /** Draws the screen once more, when the render loop has stopped and
+        the window was uncovered. */
+    private void redraw() {
+        renderer.execute(new Runnable() {
+                public void run() {
+                    render();
+                }
+            });
+    }
+
+    /**
+     * Waits until the window is up and ready to be drawn on. Must not be
+     * called on the event thread, which puts the window up.
+     */
+    void awaitReady() {
+        try {
+            ready.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void gameStarted(Simulator sim) {
+        publish(Snapshot.of(sim, null, null));
+    }
+
+    public void turnStarted(Simulator sim, Creature c) {
+        // Only copy the board when the render loop has caught up; any
+        // moves in between are never seen
+        if (wanted.getAndSet(false))
+            publish(Snapshot.of(sim, c, null));
+    }
+
+    public void moved(Simulator sim, Creature c, Creature.Move move,
+                      long thinkTime) {
+    }
+
+    public void disqualified(Simulator sim, Creature c, Simulator.Foul foul,
+                             long thinkTime) {
+    }
+
+    public void gameOver(Simulator sim, MatchResult result) {
+        Snapshot s = Snapshot.of(sim, null, null); // Display winning screen
+        last = s;
+        publish(s);
+    }
+
+    /** Hands over a new picture of the game, to be shown on the next
+        frame. Can be called from any thread. */
+    void publish(Snapshot s) {
+        latest.set(s);
+    }
+
+    /** Draws one frame, on the render thread. */
+    private void render() {
+        wanted.set(true);
+        Snapshot s = latest.get();
+        if (s == null)
+            return;
+
+        try {
+            do {
+                do {
+                    display(s);
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+            shown = s;
+            // Nothing more will change, unless images are still on their
+            // way
+            if (s == last && !stopped
+                && (!placeholders || sprites.failed())) {
+                stopped = true;
+                loop.cancel(false);
+            }
+        } catch (RuntimeException e) {
+            // Keep the loop going; the next frame will try again
+            e.printStackTrace();
+        }
+    }
+
+    /** Passes key presses in the window on to <code>l</code>. */
+    void addKeyListener(final KeyListener l) {
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    gfx.addKeyListener(l);
+                }
+            });
+    }
+
+    /**
+     * Draws a type of square, or a plain square in its colour if its image
+     * isn't loaded yet.
+     */
+    private void draw(Graphics g, Type t, int x, int y, int unit) {
+        BufferedImage image = sprites.get(t);
+        if (image != null) {
+            g.drawImage(image, x, y, unit, unit, null);
+        } else {
+            placeholders = true;
+            g.setColor(plain(t));
+            g.fillRect(x, y, unit, unit);
+        }
+    }
+
+    /** @return The colour to show a type of square in without its
+        image. */
+    private Color plain(Type t) {
+        switch (t) {
+        case GRASS:
+            return Color.GREEN.darker();
+        case FENCE:
+            return Color.GRAY;
+        case RHUBARB:
+            return Color.PINK;
+        case SHEEP1:
+            return playerColor[0];
+        case SHEEP2:
+            return playerColor[1];
+        case WOLF1:
+            return playerColor[0].darker().darker();
+        case WOLF2:
+            return playerColor[1].darker().darker();
+        default:
+            return Color.GREEN;
+        }
+    }
+
+    /** Types that never change during a game, and so are part of the
+        background. */
+    private static boolean isTerrain(Type t) {
+        return t == Type.EMPTY || t == Type.FENCE;
+    }
+
+    /**
+     * Paints the parts of the map that never change (fences and empty
+     * ground) once, and sets up the frame image on top of it.
+     */
+    private void createLayers(Snapshot map) {
+        int unit = gfx.unit;
+        GraphicsConfiguration gc = gfx.getGraphicsConfiguration();
+        background = gc.createCompatibleImage(gfx.pixelWidth,
+                                              gfx.pixelHeight);
+        frame = gc.createCompatibleImage(gfx.pixelWidth, gfx.pixelHeight);
+        drawn = new Type[map.height][map.width];
+        // Taken before painting, so images arriving meanwhile are noticed
+        spritesPainted = sprites.loaded();
+        placeholders = false;
+
+        Graphics g = background.getGraphics();
+        g.setColor(Color.GREEN);
+        g.fillRect(0, 0, gfx.pixelWidth, gfx.pixelHeight);
+        for (int i = 0; i < map.height; ++i) {
+            for (int j = 0; j < map.width; ++j) {
+                Type t = map.get(j, i) == Type.FENCE ? Type.FENCE
+                    : Type.EMPTY;
+                draw(g, t, j * unit, i * unit, unit);
+                drawn[i][j] = t;
+            }
+        }
+        g.dispose();
+
+        g = frame.getGraphics();
+        g.drawImage(background, 0, 0, null);
+        g.dispose();
+    }
+
+    /**
+     * Brings the frame image up to date with the map, redrawing only the
+     * squares that have changed since last time.
+     */
+    private void updateFrame(Snapshot map) {
+        int unit = gfx.unit;
+        Graphics g = null;
+
+        for (int i = 0; i < map.height; ++i) {
+            for (int j = 0; j < map.width; ++j) {
+                Type t = map.get(j, i);
+                if (drawn[i][j] == t)
+                    continue;
+
+                if (g == null)
+                    g = frame.getGraphics();
+
+                int x = j * unit;
+                int y = i * unit;
+                if (isTerrain(t)) {
+                    g.drawImage(background, x, y, x + unit, y + unit,
+                                x, y, x + unit, y + unit, null);
+                } else {
+                    g.setColor(Color.GREEN);
+                    g.fillRect(x, y, unit, unit);
+                    draw(g, t, x, y, unit);
+                }
+                drawn[i][j] = t;
+            }
+        }
+
+        if (g != null)
+            g.dispose();
+    }
+
+    /** Displays the screen.
+     *
+     *  @param s
+     *         The game to show.
+     */
+    private void display(Snapshot s) {
+        // Painted all over again when images have arrived that the last
+        // painting had to do without
+        boolean repaint = frame == null
+            || (placeholders && sprites.loaded() != spritesPainted);
+        if (repaint)
+            createLayers(s);
+        if (repaint || s != shown)
+            updateFrame(s);
+        if (!hasIcon)
+            setIcon();
+
+        Graphics g = strategy.getDrawGraphics();
+        g.drawImage(frame, 0, 0, null);
+        drawHud(g, s);
+        g.dispose();
+    }
+
+    /** Gives the window its icon, once the image is loaded. */
+    private void setIcon() {
+        final BufferedImage icon = sprites.get(Type.SHEEP1);
+        if (icon == null)
+            return;
+        hasIcon = true;
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    gfx.setIconImage(icon);
+                }
+            });
+    }
+
+    /** Draws the text on top of the map. */
+    private void drawHud(Graphics g, Snapshot s) {
+        int width = gfx.pixelWidth;
+        int height = gfx.pixelHeight;
+        int playerWon = s.winner;
+
+        g.setFont(hudFont);
+        g.setColor(Color.RED);
+
+        if (s.thinking != -1) {
+            g.drawString(thinking[s.thinking], 5, 14);
+        } else if (s.status != null) {
+            g.drawString(s.status, 5, 14);
+        }
+
+        if (s.turn != hudTurn) {
+            hudTurn = s.turn;
+            turnText = "Turn " + hudTurn + "/" + Simulator.TURNS;
+        }
+        g.drawString(turnText, width - 90, 14);
+
+        for (int i = 0; i < 2; ++i) {
+            int score = s.score(i);
+            if (scoreText[i] == null || score != hudScore[i]) {
+                hudScore[i] = score;
+                scoreText[i] = "Player " + (i + 1) + " score: " + score;
+            }
+            g.setColor(playerColor[i]);
+            g.drawString(scoreText[i], i == 0 ? width / 3 : width * 3 / 5,
+                         14);
+        }
+
+        if (playerWon != 0) {
+            if (playerWon == -1) {
+                g.setColor(drawColor);
+                drawBanner(g, "It's a draw!", width, height);
+            } else {
+                g.setColor(playerColor[playerWon - 1]);
+                drawBanner(g, "Player " + playerWon + " won!", width,
+                           height);
+            }
+        }
+    }
+
+    /** Draws <code>text</code> in the middle of the map, in the big font
+        if it fits and smaller if it doesn't. */
+    private void drawBanner(Graphics g, String text, int width, int height) {
+        g.setFont(bigFont);
+        FontMetrics m = g.getFontMetrics();
+        int w = m.stringWidth(text);
+        float scale = Math.min(width * 0.9f / w,
+                               height * 0.5f / m.getHeight());
+        if (scale < 1) {
+            g.setFont(bigFont.deriveFont(bigFont.getSize2D() * scale));
+            m = g.getFontMetrics();
+            w = m.stringWidth(text);
+        }
+        g.drawString(text, (width - w) / 2,
+                     (height + m.getAscent() - m.getDescent()) / 2);
+    }
+}
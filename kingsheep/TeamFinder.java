@@ -0,0 +1,88 @@
+package kingsheep;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Finds the teams available on the class path, i.e. every package
+ * <code>kingsheep.team.&lt;name&gt;</code> that has both a
+ * <code>Sheep</code> and a <code>Wolf</code> class.
+ */
+class TeamFinder {
+
+    private static final String TEAMDIR = "kingsheep/team/";
+
+    /**
+     * @return The names of all teams, sorted.
+     */
+    static List<String> findTeams() throws IOException {
+        TreeSet<String> sheep = new TreeSet<String>();
+        TreeSet<String> wolves = new TreeSet<String>();
+
+        Enumeration<URL> roots = TeamFinder.class.getClassLoader()
+            .getResources(TEAMDIR);
+        while (roots.hasMoreElements()) {
+            URL root = roots.nextElement();
+            if (root.getProtocol().equals("file"))
+                scanDirectory(new File(decode(root.getPath())), sheep, wolves);
+            else if (root.getProtocol().equals("jar"))
+                scanJar(((JarURLConnection)root.openConnection())
+                        .getJarFile(), sheep, wolves);
+        }
+
+        sheep.retainAll(wolves);
+        return new ArrayList<String>(sheep);
+    }
+
+    private static void scanDirectory(File dir, TreeSet<String> sheep,
+                                      TreeSet<String> wolves) {
+        File teams[] = dir.listFiles();
+        if (teams == null)
+            return;
+
+        for (File team : teams) {
+            if (!team.isDirectory())
+                continue;
+            if (new File(team, "Sheep.class").isFile())
+                sheep.add(team.getName());
+            if (new File(team, "Wolf.class").isFile())
+                wolves.add(team.getName());
+        }
+    }
+
+    private static void scanJar(JarFile jar, TreeSet<String> sheep,
+                                TreeSet<String> wolves) {
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            if (!name.startsWith(TEAMDIR))
+                continue;
+
+            String rest[] = name.substring(TEAMDIR.length()).split("/");
+            if (rest.length != 2)
+                continue;
+            if (rest[1].equals("Sheep.class"))
+                sheep.add(rest[0]);
+            else if (rest[1].equals("Wolf.class"))
+                wolves.add(rest[0]);
+        }
+    }
+
+    private static String decode(String path) {
+        try {
+            return URLDecoder.decode(path, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return path;
+        }
+    }
+}
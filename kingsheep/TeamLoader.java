@@ -0,0 +1,243 @@
+package kingsheep;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads teams, each into a class loader of its own, so that teams can't
+ * see each other's static fields even when both are called, say,
+ * <code>Helper</code>.
+ *
+ * A team's class files are read once and its constructors are looked up
+ * once, after which making creatures for a new game is about as cheap as
+ * a plain <code>new</code>. {@link #SHARED} keeps a team's class loader
+ * (and so its static fields) from game to game, and between the two
+ * players of a team playing itself. {@link #FRESH} gives every player of
+ * every game a class loader of its own, defined from the class files
+ * already read, so nothing carries over from one game to another, even
+ * between games played at the same time. Tournaments and tuning use it
+ * unless asked to share.
+ */
+final class TeamLoader implements TeamSource {
+
+    /** Keeps every team's classes for the life of the program. */
+    static final TeamLoader SHARED = new TeamLoader(false);
+
+    /** Loads every team afresh for every player of every game. */
+    static final TeamLoader FRESH = new TeamLoader(true);
+
+    private static final String PACKAGE = "kingsheep.team.";
+
+    /** What a constructor of a creature looks like. */
+    private static final MethodType CONSTRUCTOR =
+        MethodType.methodType(void.class, Type.class, int.class, int.class,
+                              int.class);
+    private static final MethodType FACTORY =
+        CONSTRUCTOR.changeReturnType(Creature.class);
+
+    /** Teams by name, loaded once. */
+    private static final Map<String, Team> teams =
+        new ConcurrentHashMap<String, Team>();
+
+    private final boolean fresh;
+
+    /**
+     * @param fresh Whether to load a team's classes anew for every player
+     *        of every game.
+     */
+    private TeamLoader(boolean fresh) {
+        this.fresh = fresh;
+    }
+
+    public void release(Player p) {
+        // Nothing is held for a player
+    }
+
+    public Player player(String teamName, int playerID)
+        throws ReflectiveOperationException
+    {
+        Team team = team(teamName);
+        Factories f = fresh ? team.load() : team.shared;
+
+        Creature sheep = f.make(f.sheep, playerID == 1 ? Type.SHEEP1
+                                : Type.SHEEP2, playerID);
+        Creature wolf = f.make(f.wolf, playerID == 1 ? Type.WOLF1
+                               : Type.WOLF2, playerID);
+        return new Player(sheep, wolf);
+    }
+
+    private static Team team(String name)
+        throws ReflectiveOperationException
+    {
+        Team team = teams.get(name);
+        if (team == null) {
+            synchronized (teams) {
+                team = teams.get(name);
+                if (team == null) {
+                    team = new Team(name);
+                    teams.put(name, team);
+                }
+            }
+        }
+        return team;
+    }
+
+    /** One team's class files, and its classes as first loaded. */
+    private static class Team {
+        final String prefix;
+
+        /** Class files by class name, read when first needed. */
+        final Map<String, byte[]> classes =
+            new ConcurrentHashMap<String, byte[]>();
+
+        final Factories shared;
+
+        Team(String name) throws ReflectiveOperationException {
+            prefix = PACKAGE + name + ".";
+            shared = load();
+        }
+
+        /** Loads the team into a new class loader. */
+        Factories load() throws ReflectiveOperationException {
+            TeamClassLoader loader = new TeamClassLoader(this);
+            return new Factories(loader.loadClass(prefix + "Sheep"),
+                                 loader.loadClass(prefix + "Wolf"));
+        }
+
+        /** @return The class file of a class in the team's package. */
+        byte[] bytes(String className, ClassLoader parent)
+            throws ClassNotFoundException
+        {
+            byte b[] = classes.get(className);
+            if (b != null)
+                return b;
+
+            InputStream in = parent.getResourceAsStream
+                (className.replace('.', '/') + ".class");
+            if (in == null)
+                throw new ClassNotFoundException(className);
+            try {
+                try {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte buf[] = new byte[8192];
+                    for (int n; (n = in.read(buf)) != -1; )
+                        out.write(buf, 0, n);
+                    b = out.toByteArray();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new ClassNotFoundException(className, e);
+            }
+            classes.put(className, b);
+            return b;
+        }
+    }
+
+    /** A team's constructors, from one class loader. */
+    private static class Factories {
+        final MethodHandle sheep;
+        final MethodHandle wolf;
+
+        Factories(Class<?> sheep, Class<?> wolf)
+            throws ReflectiveOperationException
+        {
+            this.sheep = constructor(sheep);
+            this.wolf = constructor(wolf);
+        }
+
+        private static MethodHandle constructor(Class<?> c)
+            throws ReflectiveOperationException
+        {
+            if (!Creature.class.isAssignableFrom(c))
+                throw new ClassCastException(c.getName()
+                                             + " is not a Creature");
+            if (!thinks(c))
+                throw new NoSuchMethodException
+                    (c.getName() + " overrides neither think(BoardView) nor"
+                     + " think(Type[][])");
+            return MethodHandles.publicLookup()
+                .findConstructor(c, CONSTRUCTOR).asType(FACTORY);
+        }
+
+        /** @return <code>true</code> if <code>c</code> or a superclass
+            short of Creature declares one of the <code>think</code>
+            methods. Without one, the creature would just wait every turn,
+            where it used to fail to compile. */
+        private static boolean thinks(Class<?> c) {
+            for (; c != Creature.class; c = c.getSuperclass()) {
+                for (Method m : c.getDeclaredMethods()) {
+                    if (!m.getName().equals("think")
+                        || m.getParameterTypes().length != 1)
+                        continue;
+                    Class<?> p = m.getParameterTypes()[0];
+                    if (p == BoardView.class || p == Type[][].class)
+                        return true;
+                }
+            }
+            return false;
+        }
+
+        Creature make(MethodHandle constructor, Type type, int playerID)
+            throws ReflectiveOperationException
+        {
+            try {
+                return (Creature)constructor.invokeExact(type, playerID, -1,
+                                                         -1);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (ReflectiveOperationException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+
+    /**
+     * Defines the classes in one team's package itself, and leaves
+     * everything else (the game, the Java library) to the class loader
+     * the game came from.
+     */
+    private static class TeamClassLoader extends ClassLoader {
+        static {
+            registerAsParallelCapable();
+        }
+
+        private final Team team;
+
+        TeamClassLoader(Team team) {
+            super(TeamLoader.class.getClassLoader());
+            this.team = team;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve)
+            throws ClassNotFoundException
+        {
+            if (!name.startsWith(team.prefix))
+                return super.loadClass(name, resolve);
+
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    byte b[] = team.bytes(name, getParent());
+                    c = defineClass(name, b, 0, b.length);
+                }
+                if (resolve)
+                    resolveClass(c);
+                return c;
+            }
+        }
+    }
+}
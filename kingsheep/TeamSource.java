@@ -0,0 +1,21 @@
+package kingsheep;
+
+/**
+ * Where a game gets its teams from: loaded into the game's own JVM by a
+ * {@link TeamLoader}, or playing in other processes by way of a
+ * {@link WorkerPool}.
+ */
+interface TeamSource {
+
+    /**
+     * Makes a team's creatures for one game, ready to be placed on a map.
+     *
+     * @throws ReflectiveOperationException if the team can't be loaded.
+     */
+    Player player(String teamName, int playerID)
+        throws ReflectiveOperationException;
+
+    /** Gives back a player that won't be playing after all, because its
+        game couldn't be set up. */
+    void release(Player p);
+}
@@ -0,0 +1,279 @@
+package kingsheep;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * How much time creatures get to think, and how it's counted.
+ *
+ * By default it's the way it has always been: one second of wall time per
+ * move. That's unfair when many games run at once, since a creature can
+ * run out of time just because the machine was busy. Counting the thinker
+ * thread's own CPU time instead gives the same answer however loaded the
+ * machine is. A creature that sleeps or blocks doesn't use CPU time, so
+ * CPU budgets also have a (generous) wall time limit.
+ *
+ * On top of the per-move budget, a team can have a budget for all the
+ * thinking it does in a game, and garbage collection pauses during a move
+ * can be forgiven.
+ *
+ * Budgets are written as a comma separated list, like
+ * <code>cpu,move=1000,match=30000,gc</code>:
+ *
+ * <pre>
+ *     wall, cpu   which clock to use (wall is the default)
+ *     move=MS     milliseconds per move (1000)
+ *     match=MS    milliseconds per team per game (no limit)
+ *     gc          don't count garbage collection pauses
+ * </pre>
+ */
+final class ThinkBudget {
+
+    /** The clocks a budget can be counted in. */
+    enum Clock { WALL, CPU }
+
+    /** How many times its CPU budget a move may take in wall time. */
+    static final int WALL_FACTOR = 10;
+
+    /** The budget creatures have always had. */
+    static final ThinkBudget STANDARD =
+        new ThinkBudget(Clock.WALL, Simulator.THINKLIMIT, 0, false);
+
+    private static final ThreadMXBean THREADS =
+        ManagementFactory.getThreadMXBean();
+
+    /** CPU time used on each thread's behalf in other processes. */
+    private static final ThreadLocal<long[]> elsewhere =
+        new ThreadLocal<long[]>() {
+            protected long[] initialValue() {
+                return new long[1];
+            }
+        };
+
+    final Clock clock;
+
+    /** Nanoseconds per move. */
+    final long move;
+
+    /** Nanoseconds per team per game, or 0 for no limit. */
+    final long match;
+
+    /** Whether garbage collection pauses are forgiven. */
+    final boolean gcGrace;
+
+    /**
+     * @param moveMillis Milliseconds per move.
+     * @param matchMillis Milliseconds per team per game, or 0 for no
+     *        limit.
+     */
+    ThinkBudget(Clock clock, long moveMillis, long matchMillis,
+                boolean gcGrace) {
+        if (moveMillis <= 0 || matchMillis < 0)
+            throw new IllegalArgumentException("Budgets must be positive");
+        if (clock == Clock.CPU && !THREADS.isThreadCpuTimeSupported())
+            throw new UnsupportedOperationException
+                ("This JVM can't measure thread CPU time");
+        if (clock == Clock.CPU && !THREADS.isThreadCpuTimeEnabled())
+            THREADS.setThreadCpuTimeEnabled(true);
+
+        this.clock = clock;
+        this.move = moveMillis * 1000000L;
+        this.match = matchMillis * 1000000L;
+        this.gcGrace = gcGrace;
+    }
+
+    /**
+     * @return The same budget, counted by <code>clock</code>.
+     * @throws UnsupportedOperationException if the JVM can't measure
+     *         thread CPU time.
+     */
+    ThinkBudget withClock(Clock clock) {
+        if (clock == this.clock)
+            return this;
+        return new ThinkBudget(clock, move / 1000000, match / 1000000,
+                               gcGrace);
+    }
+
+    /**
+     * Reads a budget written as described above.
+     *
+     * @throws IllegalArgumentException if it doesn't make sense.
+     */
+    static ThinkBudget parse(String spec) {
+        Clock clock = Clock.WALL;
+        long move = Simulator.THINKLIMIT;
+        long match = 0;
+        boolean gc = false;
+
+        for (String part : spec.split(",")) {
+            part = part.trim();
+            try {
+                if (part.equals("wall"))
+                    clock = Clock.WALL;
+                else if (part.equals("cpu"))
+                    clock = Clock.CPU;
+                else if (part.equals("gc"))
+                    gc = true;
+                else if (part.startsWith("move="))
+                    move = Long.parseLong(part.substring(5));
+                else if (part.startsWith("match="))
+                    match = Long.parseLong(part.substring(6));
+                else
+                    throw new IllegalArgumentException
+                        ("Unknown budget setting '" + part + "'");
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException
+                    ("Expected milliseconds in '" + part + "'");
+            }
+        }
+        return new ThinkBudget(clock, move, match, gc);
+    }
+
+    /**
+     * Measures one creature's thinking against the budget. A simulator
+     * keeps one of these and reuses it for every move; the
+     * {@link ThinkScheduler} fills it in.
+     */
+    final class Meter {
+
+        /** What the current move may use, by the budget's clock. */
+        private long allowance;
+
+        private long wallStart;
+        private long gcStart;
+
+        /** What the current move has used so far. */
+        long wall;
+        long cpu;
+        long gc;
+
+        /** Starts measuring a move.
+         *
+         *  @param spent What the creature's team has been charged so far
+         *         this game. */
+        void begin(long spent) {
+            begin(spent, 1);
+        }
+
+        /** Starts measuring a move that some of the team's creatures
+         *  think about at the same time.
+         *
+         *  @param spent What the creature's team has been charged so far
+         *         this game.
+         *  @param sharing How many of the team's creatures are thinking;
+         *         each may use an equal share of what the team has left
+         *         for the game. */
+        void begin(long spent, int sharing) {
+            allowance = match == 0 ? move
+                : Math.min(move, (match - spent) / sharing);
+            wall = cpu = gc = 0;
+            gcStart = gcGrace ? gcTime() : 0;
+            wallStart = System.nanoTime();
+        }
+
+        /**
+         * Brings the measurements up to date.
+         *
+         * @param cpuNanos CPU time the thinker has used, or -1 if it
+         *        isn't known.
+         */
+        void update(long cpuNanos) {
+            wall = System.nanoTime() - wallStart;
+            cpu = cpuNanos;
+            if (gcGrace)
+                gc = Math.min(wall, gcTime() - gcStart);
+        }
+
+        /** @return What the move counts as, by the budget's clock. */
+        long charged() {
+            if (clock == Clock.CPU && cpu >= 0)
+                return cpu;
+            return wall - gc;
+        }
+
+        /** @return <code>true</code> if the move has used more than it
+            may. */
+        boolean over() {
+            return allowance <= 0 || charged() > allowance
+                || (clock == Clock.CPU && wall - gc > wallLimit());
+        }
+
+        /**
+         * @return How long the scheduler can wait, in nanoseconds, before
+         *         the move could possibly be over budget. 0 if it already
+         *         is.
+         */
+        long remaining() {
+            if (over())
+                return 0;
+            // CPU time can't pass faster than wall time, so waiting for
+            // what's left of the allowance is always safe
+            long left = allowance - charged();
+            if (clock == Clock.CPU)
+                left = Math.min(left, wallLimit() - (wall - gc));
+            return Math.max(left, 1);
+        }
+
+        /** @return <code>true</code> if the move is over budget because
+            its team has used up the budget for the game. */
+        boolean outOfGame() {
+            return allowance < move && over();
+        }
+
+        private long wallLimit() {
+            return allowance * WALL_FACTOR;
+        }
+    }
+
+    /** @return CPU time used so far by the thread with id
+        <code>id</code>, or -1 if it isn't known. */
+    static long cpuTime(long id) {
+        return THREADS.getThreadCpuTime(id);
+    }
+
+    /** @return CPU time used so far by this thread, including what it
+        has been {@link #charge}d for, or -1 if it isn't known. */
+    static long cpuTime() {
+        long t = THREADS.getCurrentThreadCpuTime();
+        return t < 0 ? t : t + elsewhere.get()[0];
+    }
+
+    /**
+     * Counts CPU time used in another process, for this thread, as if this
+     * thread had used it (say, a team thinking in a {@link Worker}). A
+     * thinker's time is only brought up to date when it's done, so while
+     * it waits, the wall time limit is what keeps it in check.
+     */
+    static void charge(long cpuNanos) {
+        elsewhere.get()[0] += cpuNanos;
+    }
+
+    /**
+     * @return Nanoseconds all garbage collectors have paused the program
+     *         for. Collectors working alongside the program are left
+     *         out, since they don't stop the creatures.
+     */
+    private static long gcTime() {
+        List<GarbageCollectorMXBean> gcs =
+            ManagementFactory.getGarbageCollectorMXBeans();
+        long ms = 0;
+        for (GarbageCollectorMXBean gc : gcs) {
+            String name = gc.getName();
+            if (name.contains("Concurrent") || name.contains("Cycles"))
+                continue;
+            long t = gc.getCollectionTime();
+            if (t > 0)
+                ms += t;
+        }
+        return ms * 1000000L;
+    }
+
+    @Override
+    public String toString() {
+        return clock.name().toLowerCase() + ",move=" + move / 1000000
+            + (match == 0 ? "" : ",match=" + match / 1000000)
+            + (gcGrace ? ",gc" : "");
+    }
+}
@@ -0,0 +1,42 @@
+package kingsheep;
+
+/**
+ * Runs <code>Creature.think</code> calls on behalf of the {@link Simulator}.
+ *
+ * A scheduler may be shared by many simulators running at the same time.
+ */
+interface ThinkScheduler {
+
+    /**
+     * Runs a think task and waits for it to finish.
+     *
+     * The scheduler keeps <code>meter</code> up to date with the time the
+     * task has used. If the task goes over budget it is interrupted and
+     * abandoned: the scheduler stops waiting for it and will never hand
+     * its thread more work.
+     *
+     * @param task The thinking to do.
+     * @param meter Measures the task against its budget; must have been
+     *        started with {@link ThinkBudget.Meter#begin}.
+     * @return <code>true</code> if the task finished in time.
+     */
+    boolean think(Runnable task, ThinkBudget.Meter meter);
+
+    /**
+     * Runs several think tasks at the same time and waits for them all,
+     * each measured against its own meter as in {@link #think}.
+     *
+     * @param meters One for each task, started as for {@link #think};
+     *        extra ones are left alone.
+     * @param finished Set to whether each task finished in time.
+     */
+    void thinkAll(Runnable tasks[], ThinkBudget.Meter meters[],
+                  boolean finished[]);
+
+    /** @return How many runaway thinkers have been abandoned so far. */
+    int abandoned();
+
+    /** Releases the threads. Abandoned thinkers are left to die on their
+        own. */
+    void shutdown();
+}
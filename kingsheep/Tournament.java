@@ -0,0 +1,289 @@
+package kingsheep;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Round-robin tournament. Every pair of teams meets on every map, once
+ * from each side. Each match is its own headless {@link Simulator}, and
+ * matches are played in parallel on a fixed pool of worker threads.
+ */
+class Tournament {
+
+    /** Points awarded for a win and a draw. */
+    private static final int WINPOINTS = 3;
+    private static final int DRAWPOINTS = 1;
+
+    private final List<String> maps;
+    private final List<String> teams;
+    private final int threads;
+
+    /** Runs the thinking for all matches. */
+    private final ThinkScheduler scheduler;
+
+    private Rules rules = Rules.standard();
+    private ThinkBudget budget = ThinkBudget.STANDARD;
+    private TeamSource teamSource = TeamLoader.FRESH;
+    private boolean simultaneous;
+
+    /** Every match's seed is made from this and the match number. */
+    private long seed = new Random().nextLong();
+
+    /** Where to record the matches, if anywhere. */
+    private File recordDirectory;
+
+    /** Timings by match number, if they are wanted. */
+    private MatchStats stats[];
+
+    /** Standings by team name. Only touched by the thread calling
+        {@link #run()}. */
+    private final Map<String, Standing> standings =
+        new HashMap<String, Standing>();
+
+    private final List<MatchResult> results = new ArrayList<MatchResult>();
+
+    /** Running total for one team. */
+    static class Standing {
+        final String team;
+        int played;
+        int wins;
+        int draws;
+        int losses;
+        int points;
+        int score;
+
+        Standing(String team) {
+            this.team = team;
+        }
+    }
+
+    /** One match waiting to be played. */
+    private class Match implements Callable<MatchResult> {
+        final int number;
+        final String map;
+        final String team1;
+        final String team2;
+
+        Match(int number, String map, String team1, String team2) {
+            this.number = number;
+            this.map = map;
+            this.team1 = team1;
+            this.team2 = team2;
+        }
+
+        public MatchResult call() throws Exception {
+            Simulator sim = new Simulator(map, team1, team2, teamSource);
+            sim.setRules(rules);
+            sim.setBudget(budget);
+            sim.setSimultaneous(simultaneous);
+            sim.setSeed(Simulator.seed(seed, number));
+            sim.setThinkScheduler(scheduler);
+            if (stats != null) {
+                stats[number] = new MatchStats(number);
+                sim.setStats(stats[number]);
+            }
+            if (recordDirectory != null)
+                sim.addObserver(new MatchRecorder
+                                (new File(recordDirectory, String.format
+                                          ("%04d-%s-%s-%s.ksr", number,
+                                           new File(map).getName(), team1,
+                                           team2))));
+            return sim.run();
+        }
+    }
+
+    /**
+     * @param maps Maps to play on.
+     * @param teams Teams taking part.
+     * @param threads Number of matches to play at the same time.
+     * @param scheduler Runs the creatures' thinking in all matches.
+     */
+    Tournament(List<String> maps, List<String> teams, int threads,
+               ThinkScheduler scheduler) {
+        this.maps = maps;
+        this.teams = teams;
+        this.threads = threads;
+        this.scheduler = scheduler;
+
+        for (String team : teams)
+            standings.put(team, new Standing(team));
+    }
+
+    /** Uses one worker per available processor. */
+    Tournament(List<String> maps, List<String> teams,
+               ThinkScheduler scheduler) {
+        this(maps, teams, Runtime.getRuntime().availableProcessors(),
+             scheduler);
+    }
+
+    /** Plays all matches by a different set of rules than the standard
+        ones. */
+    void setRules(Rules rules) {
+        this.rules = rules;
+    }
+
+    /** Gives the creatures in all matches a different amount of time to
+        think. A CPU time budget keeps things fair when there are more
+        threads than processors. */
+    void setBudget(ThinkBudget budget) {
+        this.budget = budget;
+    }
+
+    /** Plays every match in simultaneous rounds.
+        @see Simulator#setSimultaneous(boolean) */
+    void setSimultaneous(boolean simultaneous) {
+        this.simultaneous = simultaneous;
+    }
+
+    /** Has each team keep its classes, and so its static fields, from
+        match to match, rather than get a fresh copy in every match. */
+    void setSharedTeams(boolean shared) {
+        teamSource = shared ? TeamLoader.SHARED : TeamLoader.FRESH;
+    }
+
+    /** Plays the teams in other processes. The pool decides whether
+        they're fresh. */
+    void setWorkers(WorkerPool workers) {
+        teamSource = workers;
+    }
+
+    /** Sets the seed all the matches' seeds are made from, so the whole
+        tournament can be played again. */
+    void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    /** Records every match to a file in <code>dir</code>. */
+    void setRecordDirectory(File dir) {
+        this.recordDirectory = dir;
+    }
+
+    /** Times every match, for {@link #getStats()}. */
+    void setTimed(boolean timed) {
+        stats = timed ? new MatchStats[0] : null;
+    }
+
+    /**
+     * Plays all matches and collects the results as they finish.
+     *
+     * @return The standings, best team first.
+     */
+    List<Standing> run() throws InterruptedException {
+        List<Match> matches = new ArrayList<Match>();
+        for (String map : maps)
+            for (int i = 0; i < teams.size(); ++i)
+                for (int j = i + 1; j < teams.size(); ++j) {
+                    matches.add(new Match(matches.size(), map, teams.get(i),
+                                          teams.get(j)));
+                    matches.add(new Match(matches.size(), map, teams.get(j),
+                                          teams.get(i)));
+                }
+
+        if (stats != null)
+            stats = new MatchStats[matches.size()];
+
+        ExecutorService pool = Executors.newFixedThreadPool
+            (Math.max(1, Math.min(threads, matches.size())),
+             new ThreadFactory() {
+                 private int count = 0;
+                 public synchronized Thread newThread(Runnable r) {
+                     Thread t = new Thread(r, "match-" + (++count));
+                     t.setDaemon(true);
+                     return t;
+                 }
+             });
+
+        try {
+            CompletionService<MatchResult> done =
+                new ExecutorCompletionService<MatchResult>(pool);
+            for (Match m : matches)
+                done.submit(m);
+
+            for (int i = 0; i < matches.size(); ++i) {
+                try {
+                    record(done.take().get());
+                } catch (ExecutionException e) {
+                    System.err.println("Match failed: " + e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return getStandings();
+    }
+
+    private void record(MatchResult r) {
+        results.add(r);
+        tally(standings.get(r.team1), r.winner, 1, r.score1);
+        tally(standings.get(r.team2), r.winner, 2, r.score2);
+    }
+
+    private static void tally(Standing s, int winner, int side, int score) {
+        s.played++;
+        s.score += score;
+        if (winner == side) {
+            s.wins++;
+            s.points += WINPOINTS;
+        } else if (winner == -1) {
+            s.draws++;
+            s.points += DRAWPOINTS;
+        } else {
+            s.losses++;
+        }
+    }
+
+    /** @return All results so far, in the order they finished. */
+    List<MatchResult> getResults() {
+        return results;
+    }
+
+    /** @return The timings of all finished matches, by match number,
+        or <code>null</code> if they weren't timed. */
+    List<MatchStats> getStats() {
+        return stats == null ? null : Arrays.asList(stats);
+    }
+
+    /** @return The standings, best team first. */
+    List<Standing> getStandings() {
+        List<Standing> list = new ArrayList<Standing>(standings.values());
+        Collections.sort(list, new Comparator<Standing>() {
+                public int compare(Standing a, Standing b) {
+                    if (a.points != b.points)
+                        return b.points - a.points;
+                    if (a.score != b.score)
+                        return b.score - a.score;
+                    return a.team.compareTo(b.team);
+                }
+            });
+        return list;
+    }
+
+    /** Prints the standings as a table. */
+    static void print(List<Standing> list) {
+        System.out.printf("%-20s %4s %4s %4s %4s %6s %6s%n", "Team", "P",
+                          "W", "D", "L", "Pts", "Score");
+        for (Standing s : list)
+            System.out.printf("%-20s %4d %4d %4d %4d %6d %6d%n", s.team,
+                              s.played, s.wins, s.draws, s.losses, s.points,
+                              s.score);
+    }
+}
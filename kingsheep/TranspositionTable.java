@@ -0,0 +1,161 @@
+package kingsheep;
+
+import java.util.Arrays;
+
+/**
+ * Remembers what a search found out about positions it has seen, by their
+ * {@link GameState#hash()}, so that a position reached again by another
+ * order of moves (or in the next turn's search) needn't be searched again.
+ *
+ * The table never grows: it's made with a size and keeps the most useful
+ * entries it can within it. Entries come in pairs. A new entry goes into
+ * the first slot of its pair if that one holds the same position, a
+ * shallower search, or something left over from an earlier search (see
+ * {@link #newSearch()}); otherwise it goes into the second slot, which
+ * always takes the newest entry.
+ *
+ * Any number of threads may use the table at once without locking. Every
+ * entry is stored as its data and its key XORed with the data, and a
+ * probe only trusts an entry whose two halves agree, so an entry torn
+ * by two threads writing at once just reads as a miss.
+ */
+public final class TranspositionTable {
+
+    /** The value is exact. */
+    public static final int EXACT = 1;
+    /** The value is at least this (the search was cut off above). */
+    public static final int LOWER = 2;
+    /** The value is at most this. */
+    public static final int UPPER = 3;
+
+    /** What {@link #probe(long)} returns when the position isn't
+        there. */
+    public static final long MISS = 0;
+
+    /** How big a table {@link Creature#transpositions()} makes. */
+    static final int DEFAULT_MEGABYTES = 16;
+
+    private static final Creature.Move MOVES[] = Creature.Move.values();
+
+    /*
+     * An entry's data, from the lowest bit: value (32 bits), depth (8),
+     * bound (2), best move ordinal + 1 (3; 0 for none), age (8). The top
+     * bit is always set, so no entry is MISS.
+     */
+    private static final int DEPTH = 32;
+    private static final int BOUND = 40;
+    private static final int MOVE = 42;
+    private static final int AGE = 45;
+    private static final long USED = 1L << 63;
+
+    private final long keys[];
+    private final long data[];
+    private final int mask;
+    private volatile int age;
+
+    /**
+     * @param megabytes Roughly how much memory to use, at 16 bytes an
+     *        entry. Rounded down to a power of two entries.
+     * @throws IllegalArgumentException if that's less than one
+     *         megabyte or more than the table can hold.
+     */
+    public TranspositionTable(int megabytes) {
+        if (megabytes < 1 || megabytes > 16 * 1024)
+            throw new IllegalArgumentException
+                ("A transposition table must be 1 to 16384 MB, not "
+                 + megabytes);
+        int entries = Integer.highestOneBit(megabytes) << 16;
+        keys = new long[entries];
+        data = new long[entries];
+        mask = entries - 2;
+    }
+
+    /** @return Number of entries the table holds. */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /** Forgets everything. */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+    }
+
+    /**
+     * Marks what's in the table as old, so new entries push it out
+     * first. Call it at the start of every <code>think</code>.
+     */
+    public void newSearch() {
+        age = (age + 1) & 0xff;
+    }
+
+    /**
+     * @return What's known about the position with hash <code>key</code>,
+     *         to be taken apart with {@link #value}, {@link #depth},
+     *         {@link #bound} and {@link #move}; or {@link #MISS}.
+     */
+    public long probe(long key) {
+        int i = index(key);
+        for (int j = i; j < i + 2; ++j) {
+            long d = data[j];
+            if ((keys[j] ^ d) == key && d != 0)
+                return d;
+        }
+        return MISS;
+    }
+
+    /**
+     * Notes what a search found out about a position.
+     *
+     * @param key The position's hash.
+     * @param value Its value, as the search sees it.
+     * @param depth How deep the search went, 0 to 255.
+     * @param bound {@link #EXACT}, {@link #LOWER} or {@link #UPPER}.
+     * @param best The best move found, or <code>null</code>.
+     */
+    public void store(long key, int value, int depth, int bound,
+                      Creature.Move best) {
+        if (depth < 0 || depth > 255 || bound < EXACT || bound > UPPER)
+            throw new IllegalArgumentException("Bad depth " + depth
+                                               + " or bound " + bound);
+        int a = age;
+        long d = (value & 0xffffffffL) | (long)depth << DEPTH
+            | (long)bound << BOUND
+            | (long)(best == null ? 0 : best.ordinal() + 1) << MOVE
+            | (long)a << AGE | USED;
+
+        int i = index(key);
+        long old = data[i];
+        if (old != 0 && (keys[i] ^ old) != key && depth(old) > depth
+            && (int)(old >>> AGE & 0xff) == a)
+            i++;
+        data[i] = d;
+        keys[i] = key ^ d;
+    }
+
+    /** @return The first slot of the pair <code>key</code> belongs in. */
+    private int index(long key) {
+        return (int)(key ^ key >>> 32) & mask;
+    }
+
+    /** @return The value of an entry. */
+    public static int value(long entry) {
+        return (int)entry;
+    }
+
+    /** @return How deep the search of an entry went. */
+    public static int depth(long entry) {
+        return (int)(entry >>> DEPTH & 0xff);
+    }
+
+    /** @return {@link #EXACT}, {@link #LOWER} or {@link #UPPER}. */
+    public static int bound(long entry) {
+        return (int)(entry >>> BOUND & 3);
+    }
+
+    /** @return The best move of an entry, or <code>null</code>. */
+    public static Creature.Move move(long entry) {
+        int m = (int)(entry >>> MOVE & 7);
+        return m == 0 ? null : MOVES[m - 1];
+    }
+}
@@ -0,0 +1,39 @@
+package kingsheep;
+
+/**
+ * A creature with numbers in it that the {@link Tuner} can try to improve
+ * by playing lots of games.
+ *
+ * Before each game the tuner calls {@link #tune} with the values to play
+ * with. A creature that is never tuned should use the
+ * {@link Parameter#initial} values.
+ */
+public interface Tunable {
+
+    /** One number that can be tuned, and the range it can take. */
+    final class Parameter {
+        public final String name;
+        public final double min;
+        public final double max;
+        public final double initial;
+
+        public Parameter(String name, double min, double max,
+                         double initial) {
+            if (!(min <= initial && initial <= max))
+                throw new IllegalArgumentException
+                    (name + ": " + initial + " is not within [" + min
+                     + ", " + max + "]");
+            this.name = name;
+            this.min = min;
+            this.max = max;
+            this.initial = initial;
+        }
+    }
+
+    /** @return The parameters, always in the same order. */
+    Parameter[] parameters();
+
+    /** Plays with these values from now on, in the order of
+        {@link #parameters()}. */
+    void tune(double values[]);
+}
@@ -0,0 +1,397 @@
+package kingsheep;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tunes a team whose creatures are {@link Tunable}, by evolution.
+ *
+ * Each generation, every candidate (a set of parameter values for the
+ * sheep followed by the wolf) plays the same set of games against the
+ * opponents: every map, every opponent, from both sides, with different
+ * seeds, for as many games as asked for. The best candidates survive
+ * into the next generation, along with mutated and crossed copies of
+ * them.
+ *
+ * Games are headless and unpaced, and run on a fork/join pool across all
+ * processors. A candidate that is clearly worse than the survivors of the
+ * last generation stops playing as soon as that is clear.
+ *
+ * Fitness is points per game (1 for a win, 1/2 for a draw), with a small
+ * bonus for the score difference to break ties.
+ */
+class Tuner {
+
+    /** Games played in one go, between checks for early cutoff. */
+    private static final int BATCH = 4;
+
+    /** Games a candidate plays before it can be cut off. */
+    private static final int MIN_GAMES = 24;
+
+    /** How sure we must be (in standard errors) that a candidate is worse
+        before cutting it off. */
+    private static final double CUTOFF_SIGMAS = 3;
+
+    private final List<String> maps;
+    private final String team;
+    private final List<String> opponents;
+    private final ThinkScheduler scheduler;
+
+    private int population = 16;
+    private int generations = 10;
+    private int games = 100;
+    private ThinkBudget budget = ThinkBudget.STANDARD;
+    private TeamLoader loader = TeamLoader.FRESH;
+    private long seed = new Random().nextLong();
+
+    /** The parameters of the sheep and the wolf, and where the wolf's
+        start in a candidate. */
+    private final Tunable.Parameter params[];
+    private final int wolfStart;
+
+    /** One set of parameter values, and how it has done so far. */
+    static class Candidate {
+        final double values[];
+        private int played;
+        private double total;
+        private double squares;
+        private volatile boolean cut;
+
+        Candidate(double values[]) {
+            this.values = values;
+        }
+
+        synchronized void add(double points) {
+            played++;
+            total += points;
+            squares += points * points;
+        }
+
+        synchronized int played() {
+            return played;
+        }
+
+        synchronized double fitness() {
+            return played == 0 ? 0 : total / played;
+        }
+
+        /** @return The standard error of the fitness. */
+        synchronized double error() {
+            if (played < 2)
+                return Double.POSITIVE_INFINITY;
+            double mean = total / played;
+            double var = (squares - played * mean * mean) / (played - 1);
+            return Math.sqrt(Math.max(var, 0) / played);
+        }
+
+        boolean wasCut() {
+            return cut;
+        }
+
+        synchronized void reset() {
+            played = 0;
+            total = squares = 0;
+            cut = false;
+        }
+    }
+
+    /**
+     * @param maps Maps to play on.
+     * @param team The team to tune. Its sheep and/or wolf must be
+     *        {@link Tunable}.
+     * @param opponents Teams to play against.
+     * @param scheduler Runs the creatures' thinking.
+     * @throws ReflectiveOperationException if the team can't be loaded.
+     * @throws IllegalArgumentException if there's nothing to tune.
+     */
+    Tuner(List<String> maps, String team, List<String> opponents,
+          ThinkScheduler scheduler)
+        throws ReflectiveOperationException
+    {
+        this.maps = maps;
+        this.team = team;
+        this.opponents = opponents;
+        this.scheduler = scheduler;
+
+        Player probe = TeamLoader.SHARED.player(team, 1);
+        Tunable.Parameter sheep[] = parameters(probe.sheep);
+        Tunable.Parameter wolf[] = parameters(probe.wolf);
+        params = Arrays.copyOf(sheep, sheep.length + wolf.length);
+        System.arraycopy(wolf, 0, params, sheep.length, wolf.length);
+        wolfStart = sheep.length;
+        if (params.length == 0)
+            throw new IllegalArgumentException
+                ("Team " + team + " has nothing to tune");
+    }
+
+    private static Tunable.Parameter[] parameters(Creature c) {
+        if (c instanceof Tunable)
+            return ((Tunable)c).parameters();
+        return new Tunable.Parameter[0];
+    }
+
+    /**
+     * Changes the search. Settings are written as a comma separated list
+     * of <code>population=N</code>, <code>generations=N</code> and
+     * <code>games=N</code> (games per candidate per generation).
+     *
+     * @throws IllegalArgumentException if a setting doesn't make sense.
+     */
+    void configure(String spec) {
+        for (String part : spec.split(",")) {
+            part = part.trim();
+            int eq = part.indexOf('=');
+            if (part.length() == 0 || part.equals("defaults"))
+                continue;
+            if (eq == -1)
+                throw new IllegalArgumentException
+                    ("Expected name=value in '" + part + "'");
+            String name = part.substring(0, eq);
+            int value;
+            try {
+                value = Integer.parseInt(part.substring(eq + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException
+                    ("Expected a number in '" + part + "'");
+            }
+            if (value < 1)
+                throw new IllegalArgumentException
+                    ("'" + part + "' must be at least 1");
+
+            if (name.equals("population"))
+                population = Math.max(2, value);
+            else if (name.equals("generations"))
+                generations = value;
+            else if (name.equals("games"))
+                games = value;
+            else
+                throw new IllegalArgumentException
+                    ("Unknown tuning setting '" + name + "'");
+        }
+    }
+
+    void setBudget(ThinkBudget budget) {
+        this.budget = budget;
+    }
+
+    /** Has the teams keep their classes, and so their static fields,
+        from game to game, rather than get a fresh copy in every game. */
+    void setSharedTeams(boolean shared) {
+        loader = shared ? TeamLoader.SHARED : TeamLoader.FRESH;
+    }
+
+    void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Runs the search, printing progress as it goes.
+     *
+     * @return The best values found, in the order of
+     *         {@link #parameters()}.
+     */
+    double[] run() {
+        Random random = new Random(seed);
+        List<Candidate> pop = new ArrayList<Candidate>();
+
+        double initial[] = new double[params.length];
+        for (int i = 0; i < params.length; ++i)
+            initial[i] = params[i].initial;
+        pop.add(new Candidate(initial));
+        while (pop.size() < population)
+            pop.add(new Candidate(mutate(initial, random, 0.5)));
+
+        int elite = Math.max(1, population / 4);
+        double threshold = Double.NEGATIVE_INFINITY;
+        ForkJoinPool pool = new ForkJoinPool();
+        Candidate best = pop.get(0);
+
+        try {
+            for (int gen = 0; gen < generations; ++gen) {
+                final long genSeed = Simulator.seed(seed, gen);
+                final double cutoff = threshold;
+                List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+                for (Candidate c : pop) {
+                    c.reset();
+                    tasks.add(new Games(c, genSeed, cutoff, 0, games));
+                }
+                for (RecursiveAction task : tasks)
+                    pool.execute(task);
+                for (RecursiveAction task : tasks)
+                    task.join();
+
+                Collections.sort(pop, new Comparator<Candidate>() {
+                        public int compare(Candidate a, Candidate b) {
+                            return Double.compare(b.fitness(), a.fitness());
+                        }
+                    });
+                best = pop.get(0);
+
+                int cut = 0;
+                for (Candidate c : pop)
+                    if (c.wasCut())
+                        cut++;
+                System.out.printf("Generation %d: best %.3f (%s), "
+                                  + "%d of %d cut off early%n", gen + 1,
+                                  best.fitness(), describe(best.values), cut,
+                                  pop.size());
+
+                // Next time, cut off anyone clearly worse than the weakest
+                // survivor
+                threshold = pop.get(elite - 1).fitness();
+
+                // Shrink the mutations as we go
+                double scale = 0.25 * (1 - (double)gen / generations) + 0.02;
+                List<Candidate> next = new ArrayList<Candidate>();
+                for (int i = 0; i < elite; ++i)
+                    next.add(pop.get(i));
+                while (next.size() < population) {
+                    Candidate a = pop.get(random.nextInt(elite));
+                    Candidate b = pop.get(random.nextInt(elite));
+                    next.add(new Candidate
+                             (mutate(cross(a.values, b.values, random),
+                                     random, scale)));
+                }
+                pop = next;
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        return best.values;
+    }
+
+    /** @return The parameters being tuned. */
+    Tunable.Parameter[] parameters() {
+        return params.clone();
+    }
+
+    /** @return Values as <code>name=value</code> pairs. */
+    String describe(double values[]) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < params.length; ++i) {
+            if (i > 0)
+                b.append(", ");
+            b.append(i < wolfStart ? "sheep." : "wolf.")
+                .append(params[i].name).append('=')
+                .append(String.format("%.4g", values[i]));
+        }
+        return b.toString();
+    }
+
+    /** @return A copy of <code>v</code> moved by up to about
+        <code>scale</code> of each parameter's range. */
+    private double[] mutate(double v[], Random random, double scale) {
+        double m[] = v.clone();
+        for (int i = 0; i < m.length; ++i) {
+            Tunable.Parameter p = params[i];
+            m[i] += random.nextGaussian() * scale * (p.max - p.min);
+            m[i] = Math.max(p.min, Math.min(p.max, m[i]));
+        }
+        return m;
+    }
+
+    /** @return Each value from either <code>a</code> or <code>b</code>. */
+    private static double[] cross(double a[], double b[], Random random) {
+        double c[] = new double[a.length];
+        for (int i = 0; i < c.length; ++i)
+            c[i] = random.nextBoolean() ? a[i] : b[i];
+        return c;
+    }
+
+    /**
+     * Plays games <code>from</code> to <code>to</code> for one candidate,
+     * splitting the range up to spread it over the pool.
+     */
+    private class Games extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Candidate candidate;
+        private final long genSeed;
+        private final double cutoff;
+        private final int from;
+        private final int to;
+
+        Games(Candidate candidate, long genSeed, double cutoff, int from,
+              int to) {
+            this.candidate = candidate;
+            this.genSeed = genSeed;
+            this.cutoff = cutoff;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > BATCH) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Games(candidate, genSeed, cutoff, from, mid),
+                          new Games(candidate, genSeed, cutoff, mid, to));
+                return;
+            }
+
+            for (int i = from; i < to; ++i) {
+                if (candidate.wasCut())
+                    return;
+                candidate.add(play(candidate, i, genSeed));
+            }
+
+            if (candidate.played() >= MIN_GAMES
+                && candidate.fitness()
+                   + CUTOFF_SIGMAS * candidate.error() < cutoff)
+                candidate.cut = true;
+        }
+    }
+
+    /**
+     * Plays game number <code>n</code> of a generation. Every candidate
+     * plays the same games, which makes them easier to compare.
+     *
+     * @return Points for the tuned team.
+     */
+    private double play(Candidate c, int n, long genSeed) {
+        String map = maps.get(n % maps.size());
+        String opponent = opponents.get(n / maps.size() % opponents.size());
+        int side = n / (maps.size() * opponents.size()) % 2 + 1;
+
+        try {
+            Player p[] = new Player[2];
+            p[side - 1] = loader.player(team, side);
+            p[2 - side] = loader.player(opponent, 3 - side);
+            tune(p[side - 1].sheep, c.values, 0, wolfStart);
+            tune(p[side - 1].wolf, c.values, wolfStart, c.values.length);
+
+            String t1 = side == 1 ? team : opponent;
+            String t2 = side == 1 ? opponent : team;
+            Simulator sim = new Simulator(map, t1, t2, p);
+            sim.setBudget(budget);
+            sim.setSeed(Simulator.seed(genSeed, n));
+            sim.setThinkScheduler(scheduler);
+            MatchResult r = sim.run();
+
+            int mine = side == 1 ? r.score1 : r.score2;
+            int theirs = side == 1 ? r.score2 : r.score1;
+            double points = r.winner == side ? 1 : r.winner == -1 ? 0.5 : 0;
+            return points + 0.001 * (mine - theirs);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not load a team", e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static void tune(Creature c, double values[], int from, int to) {
+        if (c instanceof Tunable)
+            ((Tunable)c).tune(Arrays.copyOfRange(values, from, to));
+    }
+}
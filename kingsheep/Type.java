@@ -7,14 +7,19 @@ public enum Type {
 
     char c;
 
+    /** Types by map character. */
+    private static final Type BYCHAR[] = new Type[128];
+
+    static {
+        for (Type t : values())
+            BYCHAR[t.c] = t;
+    }
+
     private Type(char c) {
         this.c = c;
     }
 
     public static Type getType(char c) {
-        for (Type t : values())
-            if (t.c == c)
-                return t;
-        return null;
+        return c < BYCHAR.length ? BYCHAR[c] : null;
     }
 }
\ No newline at end of file
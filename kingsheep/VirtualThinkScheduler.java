@@ -0,0 +1,28 @@
+package kingsheep;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs every think task on its own virtual thread. Virtual threads are
+ * cheap enough that there is no point in pooling them.
+ *
+ * Needs Java 21; the executor is looked up reflectively so the rest of the
+ * game still builds and runs on older versions.
+ */
+class VirtualThinkScheduler extends ExecutorThinkScheduler {
+
+    VirtualThinkScheduler() {
+        super(newVirtualExecutor());
+    }
+
+    private static ExecutorService newVirtualExecutor() {
+        try {
+            return (ExecutorService)Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException
+                ("Virtual threads need Java 21 or newer", e);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package kingsheep;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A separate JVM that plays one team at a time for a {@link WorkerPool},
+ * so that the team's garbage and runaway threads are its own problem, and
+ * a team that won't stop thinking can be killed.
+ *
+ * The worker follows the game with a {@link Simulator} of its own, with
+ * the team's real creatures on one side and {@link Puppet}s on the other.
+ * The game tells it the whole board once per game and after that only the
+ * moves made since the team's last turn, which the worker carries out by
+ * the same rules. Every request to think comes with the board's
+ * {@link Zobrist} hash, to make sure the two haven't drifted apart.
+ *
+ * Messages are a type byte followed by fields in {@link DataOutputStream}
+ * format. From the game:
+ *
+ * <pre>
+ *     LOAD   team, player ID, fresh                 reply READY or ERROR
+ *     GAME   map name, team 1, team 2, rules ("" if standard),
+ *            simultaneous, seed,
+ *            width, height, board at four bits per square, scores,
+ *            x, y and alive of each creature, turn, step
+ *     THINK  creature, turn, step, number of moves, moves (creature
+ *            &lt;&lt; 4 | move), board hash            reply MOVE, CHEATED
+ *                                                   or ERROR
+ *     END    the game is over
+ * </pre>
+ *
+ * To the game: READY; MOVE with the creature, its move (255 for none) and
+ * the CPU time used; CHEATED with the creature and the CPU time used;
+ * ERROR with a message.
+ *
+ * Each request to think is answered when it's done, on a thread of its
+ * own, so in simultaneous play both of the team's creatures think at once
+ * as they would at home. Anything that changes the board waits for the
+ * creatures still thinking.
+ *
+ * <pre>
+ *     java -cp kingsheep.jar kingsheep.Worker port
+ * </pre>
+ *
+ * The worker reads the secret to call back with from its standard input,
+ * which then stays open until the game is done with it.
+ */
+final class Worker {
+
+    static final int LOAD = 'L';
+    static final int GAME = 'G';
+    static final int THINK = 'T';
+    static final int END = 'E';
+
+    static final int READY = 'R';
+    static final int MOVE = 'M';
+    static final int CHEATED = 'C';
+    static final int ERROR = 'X';
+
+    /** Stands for a move of <code>null</code>. */
+    static final int NO_MOVE = 255;
+
+    private static final Creature.Move MOVES[] = Creature.Move.values();
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /** The team, as loaded for the next or current game. */
+    private Player team;
+    private String teamName;
+    private int playerID;
+
+    /** The game as the worker sees it, or <code>null</code>. */
+    private Simulator sim;
+
+    private final ExecutorService thinkers =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "kingsheep-worker-think");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /** Number of creatures thinking right now. Guarded by
+        <code>this</code>. */
+    private int thinking;
+
+    private Worker(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream
+                                 (socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream
+                                   (socket.getOutputStream()));
+    }
+
+    public static void main(String args[]) throws IOException {
+        // Read unbuffered, so the watch below gets the rest of the stream
+        long secret = new DataInputStream(System.in).readLong();
+        watchParent();
+
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                   Integer.parseInt(args[0]));
+        Worker w = new Worker(socket);
+        w.out.writeLong(secret);
+        w.out.flush();
+        try {
+            w.serve();
+        } catch (EOFException e) {
+            // The game has let us go
+        } finally {
+            socket.close();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Quits as soon as the game's JVM is gone, even in the middle of a
+     * think that would never end. The game holds the other end of our
+     * standard input, which closes when it exits, however it exits.
+     */
+    private static void watchParent() {
+        Thread t = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (System.in.read() != -1)
+                            ;
+                    } catch (IOException e) {
+                        // Gone either way
+                    }
+                    Runtime.getRuntime().halt(0);
+                }
+            }, "kingsheep-parent-watch");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void serve() throws IOException {
+        while (true) {
+            int type = in.readByte();
+            switch (type) {
+            case LOAD:
+                awaitThinkers();
+                load();
+                break;
+            case GAME:
+                awaitThinkers();
+                game();
+                break;
+            case THINK:
+                think();
+                break;
+            case END:
+                awaitThinkers();
+                sim = null;
+                team = null;
+                break;
+            default:
+                throw new IOException("Unknown message " + type);
+            }
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+
+    /** Waits for every creature that is thinking to be done. */
+    private synchronized void awaitThinkers() throws IOException {
+        try {
+            while (thinking > 0)
+                wait();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted waiting for a thinker");
+        }
+    }
+
+    private void load() throws IOException {
+        teamName = in.readUTF();
+        playerID = in.readByte();
+        boolean fresh = in.readBoolean();
+        sim = null;
+        try {
+            TeamLoader loader = fresh ? TeamLoader.FRESH
+                : TeamLoader.SHARED;
+            team = loader.player(teamName, playerID);
+            out.writeByte(READY);
+        } catch (ReflectiveOperationException e) {
+            team = null;
+            error("Could not load team " + teamName + ": " + e);
+        } catch (RuntimeException e) {
+            team = null;
+            error("Could not load team " + teamName + ": " + e);
+        } catch (LinkageError e) {
+            team = null;
+            error("Could not load team " + teamName + ": " + e);
+        }
+    }
+
+    private void game() throws IOException {
+        String mapName = in.readUTF();
+        String team1 = in.readUTF();
+        String team2 = in.readUTF();
+        String rules = in.readUTF();
+        boolean simultaneous = in.readBoolean();
+        long seed = in.readLong();
+        int width = in.readInt();
+        int height = in.readInt();
+        byte cells[] = new byte[width * height];
+        int types = Type.values().length;
+        for (int i = 0; i < cells.length; i += 2) {
+            int b = in.readUnsignedByte();
+            if ((b >>> 4) >= types || (b & 0xf) >= types)
+                throw new IOException("Bad square on the board");
+            cells[i] = (byte)(b >>> 4);
+            if (i + 1 < cells.length)
+                cells[i + 1] = (byte)(b & 0xf);
+        }
+        int score[] = { in.readInt(), in.readInt() };
+        int x[] = new int[4];
+        int y[] = new int[4];
+        boolean alive[] = new boolean[4];
+        for (int id = 0; id < 4; ++id) {
+            x[id] = in.readInt();
+            y[id] = in.readInt();
+            alive[id] = in.readBoolean();
+        }
+        int turn = in.readInt();
+        int step = in.readInt();
+
+        sim = null;
+        if (team == null)
+            return;  // The error has been reported already
+
+        Player p[] = new Player[2];
+        p[playerID - 1] = team;
+        p[2 - playerID] = Puppet.player(3 - playerID);
+
+        // Starting from the map's template, if it can be found here too,
+        // saves working out the distances around the fences every game
+        Board board;
+        try {
+            MapTemplate t = MapTemplate.get(mapName);
+            board = t.width() == width && t.height() == height
+                ? t.newBoard(p) : new Board(width, height);
+        } catch (IOException e) {
+            board = new Board(width, height);
+        }
+
+        sim = new Simulator(mapName, team1, team2, p, board);
+        if (rules.length() > 0)
+            sim.setRules(Rules.load(new StringReader(rules)));
+        sim.setSimultaneous(simultaneous);
+        sim.setSeed(seed);
+        sim.replayStart();
+        sim.replayRestore(cells, score, x, y, alive, turn);
+        sim.replayAt(turn, step);
+    }
+
+    private void think() throws IOException {
+        final int id = in.readByte();
+        int turn = in.readInt();
+        int step = in.readInt();
+        int n = in.readInt();
+        byte moves[] = new byte[n];
+        in.readFully(moves);
+        long hash = in.readLong();
+
+        // A creature of the same round may still be thinking, on the
+        // board as it is; nothing may change under it
+        if (n > 0 || sim == null || turn != sim.getTurn()
+            || step != sim.getStep())
+            awaitThinkers();
+
+        if (sim == null) {
+            error(team == null ? "Team " + teamName + " isn't loaded"
+                  : "No game going on");
+            return;
+        }
+
+        for (byte m : moves) {
+            int b = m & 0xff;
+            sim.replayMove(sim.creature(b >>> 4), MOVES[b & 0xf], 0);
+        }
+        sim.replayAt(turn, step);
+        if (sim.getBoard().hash(1) != hash) {
+            sim = null;
+            error("The worker's board is out of step with the game");
+            return;
+        }
+
+        final Creature c = sim.creature(id);
+        if (c.playerID != playerID) {
+            error("Asked to think for the other team");
+            return;
+        }
+
+        synchronized (this) {
+            ++thinking;
+        }
+        thinkers.execute(new Runnable() {
+                public void run() {
+                    try {
+                        plan(id, c);
+                    } catch (IOException e) {
+                        // The game has gone; serve() will notice
+                    } finally {
+                        synchronized (Worker.this) {
+                            --thinking;
+                            Worker.this.notifyAll();
+                        }
+                    }
+                }
+            });
+    }
+
+    /** Lets <code>c</code> think, on a thinker thread, and answers. */
+    private void plan(int id, Creature c) throws IOException {
+        int oldx = c.x;
+        int oldy = c.y;
+        long start = ThinkBudget.cpuTime();
+        try {
+            c.planner.run();
+        } catch (Throwable t) {
+            // As at home: a crashing AI doesn't get to change its plan
+            t.printStackTrace();
+        }
+        long end = ThinkBudget.cpuTime();
+        long cpu = start >= 0 && end >= 0 ? end - start : 0;
+
+        boolean cheated = c.x != oldx || c.y != oldy;
+        c.x = oldx;
+        c.y = oldy;
+        synchronized (out) {
+            if (cheated) {
+                out.writeByte(CHEATED);
+                out.writeByte(id);
+                out.writeLong(cpu);
+            } else {
+                out.writeByte(MOVE);
+                out.writeByte(id);
+                out.writeByte(c.move == null ? NO_MOVE : c.move.ordinal());
+                out.writeLong(cpu);
+            }
+            out.flush();
+        }
+    }
+
+    private void error(String message) throws IOException {
+        synchronized (out) {
+            out.writeByte(ERROR);
+            out.writeUTF(message);
+        }
+    }
+}
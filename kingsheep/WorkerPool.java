@@ -0,0 +1,330 @@
+package kingsheep;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays teams in {@link Worker} processes rather than in the game's own
+ * JVM, so that a team's garbage, threads and crashes stay out of the
+ * game's way, and a team that won't stop thinking can be killed.
+ *
+ * A few workers are started up front and kept for game after game. A
+ * worker that last played the same team is preferred, as it has the
+ * team's classes loaded and compiled already. More are started when
+ * every one is busy.
+ *
+ * Workers talk to the game over a socket on the loopback address. Each
+ * one proves it was started by this pool by sending back a secret, which
+ * it's given on its standard input, where (unlike the command line) no
+ * one else can see it.
+ */
+final class WorkerPool implements TeamSource {
+
+    /** How long a worker may take to start up and call back. */
+    private static final long CONNECT_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    /** How long a worker may take to load a team, static initializers and
+        all. */
+    private static final long LOAD_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    private final ServerSocket server;
+    private final Random secrets = new SecureRandom();
+
+    /** How many idle workers to keep. */
+    private final int warm;
+
+    /** Workers waiting for a game, most recently used last. */
+    private final LinkedList<Connection> idle = new LinkedList<Connection>();
+
+    /** Every worker that hasn't been shut down. */
+    private final List<Connection> all = new ArrayList<Connection>();
+
+    /** Workers started but not yet called back, by secret. */
+    private final Map<Long, Connection> starting =
+        new ConcurrentHashMap<Long, Connection>();
+
+    private volatile boolean fresh = true;
+    private volatile boolean shutDown;
+
+    /** One worker process and the socket to it. */
+    static final class Connection {
+        private final long secret;
+        private final CountDownLatch connected = new CountDownLatch(1);
+        private Process process;
+        private Socket socket;
+        DataInputStream in;
+        DataOutputStream out;
+
+        /** The team it last loaded, or <code>null</code>. */
+        private String team;
+
+        private Connection(long secret) {
+            this.secret = secret;
+        }
+
+        private void connect(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream
+                                     (socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream
+                                       (socket.getOutputStream()));
+            this.socket = socket;
+            connected.countDown();
+        }
+
+        /** Waits for the worker to call back. */
+        private void await() throws IOException {
+            long deadline = System.nanoTime() + CONNECT_TIMEOUT;
+            try {
+                while (!connected.await(100, TimeUnit.MILLISECONDS)) {
+                    if (!process.isAlive())
+                        throw new IOException("Worker quit with status "
+                                              + process.exitValue());
+                    if (System.nanoTime() > deadline)
+                        throw new IOException("Worker didn't start");
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted starting a worker");
+            }
+        }
+
+        /** Lets the worker go. It quits when it notices. */
+        private void close() {
+            try {
+                if (socket != null)
+                    socket.close();
+                process.getOutputStream().close();
+            } catch (IOException e) {
+                // It'll go anyway
+            }
+        }
+    }
+
+    /**
+     * Starts <code>warm</code> workers, which will be ready shortly.
+     *
+     * @throws IOException if the socket for them can't be opened, or a
+     *         worker can't be started.
+     */
+    WorkerPool(int warm) throws IOException {
+        this.warm = warm;
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+        Thread t = new Thread(new Runnable() {
+                public void run() {
+                    accept();
+                }
+            }, "kingsheep-workers");
+        t.setDaemon(true);
+        t.start();
+
+        for (int i = 0; i < warm; ++i)
+            idle.add(start());
+    }
+
+    /** Has every team loaded afresh in every game (the default), so
+        that nothing left in static fields carries over. */
+    void setFreshTeams(boolean fresh) {
+        this.fresh = fresh;
+    }
+
+    /** Answers workers calling back. */
+    private void accept() {
+        while (!shutDown) {
+            Socket socket = null;
+            try {
+                socket = server.accept();
+                socket.setSoTimeout((int)TimeUnit.NANOSECONDS.toMillis
+                                    (CONNECT_TIMEOUT));
+                long secret = new DataInputStream(socket.getInputStream())
+                    .readLong();
+                socket.setSoTimeout(0);
+                Connection c = starting.remove(secret);
+                if (c == null)
+                    socket.close();
+                else
+                    c.connect(socket);
+            } catch (IOException e) {
+                if (socket != null)
+                    try {
+                        socket.close();
+                    } catch (IOException e2) {
+                        // Nothing more to do
+                    }
+            }
+        }
+    }
+
+    /** Starts a worker process. */
+    private Connection start() throws IOException {
+        long secret;
+        Connection c;
+        do {
+            secret = secrets.nextLong();
+            c = new Connection(secret);
+        } while (starting.putIfAbsent(secret, c) != null);
+
+        String java = System.getProperty("java.home") + File.separator
+            + "bin" + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder
+            (java, "-Djava.awt.headless=true",
+             "-cp", System.getProperty("java.class.path"),
+             Worker.class.getName(), String.valueOf(server.getLocalPort()));
+        pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        try {
+            c.process = pb.start();
+        } catch (IOException e) {
+            starting.remove(secret);
+            throw e;
+        }
+        try {
+            // Standard input stays open: the worker quits when it closes
+            DataOutputStream in = new DataOutputStream
+                (c.process.getOutputStream());
+            in.writeLong(secret);
+            in.flush();
+        } catch (IOException e) {
+            starting.remove(secret);
+            c.process.destroyForcibly();
+            throw e;
+        }
+        synchronized (this) {
+            all.add(c);
+        }
+        return c;
+    }
+
+    /** @return A worker for a game, preferably one that last played
+        <code>team</code>. */
+    private Connection acquire(String team) throws IOException {
+        synchronized (this) {
+            if (shutDown)
+                throw new IOException("The workers have been shut down");
+            for (Iterator<Connection> i = idle.descendingIterator();
+                 i.hasNext(); ) {
+                Connection c = i.next();
+                if (team.equals(c.team)) {
+                    i.remove();
+                    return c;
+                }
+            }
+            if (!idle.isEmpty())
+                return idle.removeLast();
+        }
+        return start();
+    }
+
+    /**
+     * Loads a team into a worker, and makes stand-ins for its creatures.
+     * The worker goes back to the pool when the game is over.
+     *
+     * @throws ReflectiveOperationException if the team can't be loaded, or
+     *         no worker could be had.
+     */
+    public Player player(String teamName, int playerID)
+        throws ReflectiveOperationException
+    {
+        Connection c;
+        try {
+            c = acquire(teamName);
+        } catch (IOException e) {
+            throw new ReflectiveOperationException
+                ("Could not start a worker: " + e.getMessage(), e);
+        }
+
+        try {
+            c.await();
+            c.out.writeByte(Worker.LOAD);
+            c.out.writeUTF(teamName);
+            c.out.writeByte(playerID);
+            c.out.writeBoolean(fresh);
+            c.out.flush();
+            // A team that never finishes loading costs its worker, like
+            // one that never calls back
+            c.socket.setSoTimeout((int)TimeUnit.NANOSECONDS.toMillis
+                                  (LOAD_TIMEOUT));
+            int reply = c.in.readByte();
+            String message = reply == Worker.ERROR ? c.in.readUTF() : null;
+            c.socket.setSoTimeout(0);
+            if (reply == Worker.ERROR) {
+                c.team = null;
+                release(c);
+                throw new ClassNotFoundException(message);
+            }
+            if (reply != Worker.READY)
+                throw new IOException("Unknown reply " + reply);
+        } catch (IOException e) {
+            discard(c);
+            throw new ReflectiveOperationException
+                ("Worker failed loading " + teamName + ": "
+                 + e.getMessage(), e);
+        }
+        c.team = teamName;
+
+        RemoteTeam team = new RemoteTeam(this, c, playerID);
+        Player p = new Player
+            (new RemoteTeam.Proxy(team, playerID == 1 ? Type.SHEEP1
+                                  : Type.SHEEP2, playerID),
+             new RemoteTeam.Proxy(team, playerID == 1 ? Type.WOLF1
+                                  : Type.WOLF2, playerID));
+        p.observer = team;
+        return p;
+    }
+
+    /** Takes back the worker of a player whose game never started. */
+    public void release(Player p) {
+        if (p.observer instanceof RemoteTeam)
+            ((RemoteTeam)p.observer).cancel();
+    }
+
+    /** Takes a worker back after a game. */
+    synchronized void release(Connection c) {
+        if (shutDown || idle.size() >= warm) {
+            all.remove(c);
+            c.close();
+        } else {
+            idle.add(c);
+        }
+    }
+
+    /** Kills a worker that can't be trusted with another game. */
+    void discard(Connection c) {
+        c.process.destroyForcibly();
+        c.close();
+        synchronized (this) {
+            all.remove(c);
+        }
+    }
+
+    /** Lets every worker go. */
+    synchronized void shutdown() {
+        shutDown = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // Nothing more to do
+        }
+        for (Connection c : all)
+            c.close();
+        all.clear();
+        idle.clear();
+    }
+}
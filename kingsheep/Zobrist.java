@@ -0,0 +1,49 @@
+package kingsheep;
+
+/**
+ * Zobrist keys: a random-looking number for every type on every square,
+ * so that the hash of a board is the XOR of the keys of its squares, and
+ * changing a square changes the hash with two XORs.
+ *
+ * Rather than a table of random keys, which on a big map would be bigger
+ * than the board itself, the keys are made by mixing the square and the
+ * type on the fly. EMPTY squares have key 0, so an empty board hashes to 0.
+ */
+final class Zobrist {
+
+    private static final int T = Type.values().length;
+    private static final int EMPTY = Type.EMPTY.ordinal();
+
+    /** Keeps these keys apart from other uses of the mixer. */
+    private static final long SQUARES = 0x5a6f627269737431L;
+    private static final long MOVES = 0x5a6f627269737432L;
+    private static final long CHOICES = 0x5a6f627269737433L;
+
+    private Zobrist() {
+    }
+
+    /** @return The key of type ordinal <code>type</code> on the square
+        with index <code>square</code>. */
+    static long key(int square, int type) {
+        if (type == EMPTY)
+            return 0;
+        return Simulator.seed(SQUARES, (long)square * T + type);
+    }
+
+    /** @return A key for who is to move and how the game stands. */
+    static long key(int turn, int step, int score1, int score2) {
+        long n = ((long)turn << 8 | step) << 40
+            ^ (long)(score1 & 0xfffff) << 20 ^ (score2 & 0xfffff);
+        return Simulator.seed(MOVES, n);
+    }
+
+    /**
+     * @return A key for creature <code>id</code> having chosen the move
+     *         with ordinal <code>move</code> in a simultaneous round, or
+     *         with <code>move</code> -1, for it being the one to choose
+     *         first.
+     */
+    static long choice(int id, int move) {
+        return Simulator.seed(CHOICES, id * 8 + move + 1);
+    }
+}
@@ -2,15 +2,67 @@ package kingsheep.team.awesome;
 
 import kingsheep.*;
 
-public class Sheep extends Creature {
+public class Sheep extends Creature implements Tunable {
+
+    /** How often to wander about at random instead of going for food. */
+    private double wander = 1;
+
+    /** How many steps further away rhubarb is worth going for. */
+    private double rhubarb = 0;
 
     public Sheep(Type type, int playerID, int x, int y) {
         super(type, playerID, x, y);
     }
 
-    protected void think(Type map[][]) {
+    public Parameter[] parameters() {
+        return new Parameter[] {
+            new Parameter("wander", 0, 1, 1),
+            new Parameter("rhubarb", 0, 20, 0)
+        };
+    }
+
+    public void tune(double values[]) {
+        wander = values[0];
+        rhubarb = values[1];
+    }
+
+    protected void think(BoardView board) {
+        if (wander >= 1 || random().nextDouble() < wander) {
+            wanderAbout();
+            return;
+        }
+
+        // Go for the food that's closest, counting rhubarb as closer
+        int best = -1;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (Type food : new Type[] { Type.GRASS, Type.RHUBARB }) {
+            BitBoard bits = board.bits(food);
+            double bonus = food == Type.RHUBARB ? rhubarb : 0;
+            for (int i = bits.next(0); i != -1; i = bits.next(i + 1)) {
+                int d = board.distance(x, y, i % board.width(),
+                                       i / board.width());
+                if (d != DistanceField.UNREACHABLE && d - bonus < bestCost) {
+                    bestCost = d - bonus;
+                    best = i;
+                }
+            }
+        }
+        if (best == -1) {
+            move = Move.WAIT;
+            return;
+        }
+
+        BitBoard blocked = board.bits(Type.WOLF1).copy();
+        blocked.or(board.bits(Type.SHEEP2));
+        blocked.or(board.bits(Type.WOLF2));
+        move = board.towards(x, y, best % board.width(),
+                             best / board.width(), blocked);
+        if (move == null)
+            move = Move.WAIT;
+    }
 
-        int t = (int)(Math.random() * 4);
+    private void wanderAbout() {
+        int t = random().nextInt(4);
 
         switch (t) {
         case 0:
@@ -30,4 +82,4 @@ public class Sheep extends Creature {
             break;
         }
     }
-}
\ No newline at end of file
+}
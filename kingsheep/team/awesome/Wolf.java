@@ -2,14 +2,48 @@ package kingsheep.team.awesome;
 
 import kingsheep.*;
 
-public class Wolf extends Creature {
+public class Wolf extends Creature implements Tunable {
+
+    /** How often to wander about at random instead of hunting. */
+    private double wander = 1;
 
     public Wolf(Type type, int playerID, int x, int y) {
         super(type, playerID, x, y);
     }
 
-    protected void think(Type map[][]) {
-        int t = (int)(Math.random() * 4);
+    public Parameter[] parameters() {
+        return new Parameter[] {
+            new Parameter("wander", 0, 1, 1)
+        };
+    }
+
+    public void tune(double values[]) {
+        wander = values[0];
+    }
+
+    protected void think(BoardView board) {
+        if (wander >= 1 || random().nextDouble() < wander) {
+            wanderAbout();
+            return;
+        }
+
+        // Hunt the other sheep
+        int prey = board.bits(Type.SHEEP2).next(0);
+        if (prey == -1) {
+            move = Move.WAIT;
+            return;
+        }
+
+        BitBoard blocked = board.bits(Type.SHEEP1).copy();
+        blocked.or(board.bits(Type.WOLF2));
+        move = board.towards(x, y, prey % board.width(),
+                             prey / board.width(), blocked);
+        if (move == null)
+            move = Move.WAIT;
+    }
+
+    private void wanderAbout() {
+        int t = random().nextInt(4);
 
         try {
             Thread.sleep(1);
@@ -33,4 +67,4 @@ public class Wolf extends Creature {
             break;
         }
     }
-}
\ No newline at end of file
+}
@@ -8,7 +8,7 @@ public class Wolf extends Creature {
         super(type, playerID, x, y);
     }
 
-    protected void think(Type map[][]) {
+    protected void think(BoardView board) {
         move = Move.WAIT;
     }
 }
\ No newline at end of file